@@ -0,0 +1,158 @@
+package com.checkpoint.mgmt_api.examples;
+
+import com.checkpoint.mgmt_api.client.ApiLoginResponse;
+import com.checkpoint.mgmt_api.objects.GatewayAndServer;
+import com.checkpoint.mgmt_api.objects.IndexView;
+import com.checkpoint.mgmt_api.objects.Layer;
+import com.checkpoint.mgmt_api.objects.SessionChanges;
+import com.checkpoint.mgmt_api.utils.ExportCache;
+import org.json.simple.JSONObject;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * This class holds the state of the export of a single domain: the login session of the domain, the folder that
+ * the files of the domain are written into, the gateways and the packages of the domain, and the objects which were
+ * retrieved from the domain.
+ * Every domain has its own context, so several domains can be exported at the same time.
+ * The packages of a domain may be exported in parallel, so the shared collections are thread safe.
+ */
+class DomainExportContext {
+
+    //The name of the domain, empty when the default domain of the login is exported
+    private final String name;
+    //The sub folder of the domain in a multi-domain export, empty when a single domain is exported
+    private final String folderName;
+    //The folder that the files of the domain are written into (ends with a separator)
+    private final String outputFolderPath;
+    private final IndexView index = new IndexView();
+
+    private ApiLoginResponse loginResponse;
+    private ExportCache exportCache = null;
+    private SessionChanges sessionChanges = null;
+
+    private final List<String> installedPackages = new ArrayList<>();
+    private final List<GatewayAndServer> gatewaysWithPolicy = new ArrayList<>();
+    //All the objects which were retrieved from the domain, shared by all the packages of the domain
+    private final Map<String, JSONObject> objectStore = new ConcurrentHashMap<>();
+    //The inline layers are shared by all the packages, every inline layer is written once
+    private final Set<String> knownInlineLayers = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    //The inline layers which were resolved (by their uids), every inline layer is resolved once
+    private final Map<String, Layer> inlineLayerCache = new ConcurrentHashMap<>();
+    //The names of the objects of the packages of the domain, interned by their dictionaries (dropped with the domain)
+    private final ConcurrentMap<String, String> namesPool = new ConcurrentHashMap<>();
+
+    /**
+     * @param name the name of the domain (empty for the default domain of the login)
+     * @param folderName the sub folder of the domain (empty when a single domain is exported)
+     * @param outputFolderPath the folder that the files of the domain are written into
+     */
+    DomainExportContext(String name, String folderName, String outputFolderPath)
+    {
+        this.name = name;
+        this.folderName = folderName;
+        this.outputFolderPath = outputFolderPath;
+    }
+
+    String getName()
+    {
+        return name;
+    }
+
+    String getFolderName()
+    {
+        return folderName;
+    }
+
+    String getOutputFolderPath()
+    {
+        return outputFolderPath;
+    }
+
+    ConcurrentMap<String, String> getNamesPool()
+    {
+        return namesPool;
+    }
+
+    /**
+     * This function drops the names of the objects once the export of the domain is done
+     * (the context itself is kept until all the domains are done)
+     */
+    void clearNamesPool()
+    {
+        namesPool.clear();
+    }
+
+    IndexView getIndex()
+    {
+        return index;
+    }
+
+    ApiLoginResponse getLoginResponse()
+    {
+        return loginResponse;
+    }
+
+    void setLoginResponse(ApiLoginResponse loginResponse)
+    {
+        this.loginResponse = loginResponse;
+    }
+
+    ExportCache getExportCache()
+    {
+        return exportCache;
+    }
+
+    void setExportCache(ExportCache exportCache)
+    {
+        this.exportCache = exportCache;
+    }
+
+    SessionChanges getSessionChanges()
+    {
+        return sessionChanges;
+    }
+
+    void setSessionChanges(SessionChanges sessionChanges)
+    {
+        this.sessionChanges = sessionChanges;
+    }
+
+    List<String> getInstalledPackages()
+    {
+        return installedPackages;
+    }
+
+    List<GatewayAndServer> getGatewaysWithPolicy()
+    {
+        return gatewaysWithPolicy;
+    }
+
+    Map<String, JSONObject> getObjectStore()
+    {
+        return objectStore;
+    }
+
+    Map<String, Layer> getInlineLayerCache()
+    {
+        return inlineLayerCache;
+    }
+
+    /**
+     * Mark a given inline layer as known (it's written by the caller)
+     *
+     * @param knownInlineLayer the uid of the inline layer
+     * @return true if the inline layer wasn't known before
+     */
+    boolean setKnownInlineLayers(String knownInlineLayer)
+    {
+        return knownInlineLayers.add(knownInlineLayer);
+    }
+
+    boolean isKnownInlineLayer(String knownInlineLayer)
+    {
+        return knownInlineLayers.contains(knownInlineLayer);
+    }
+}
@@ -0,0 +1,14 @@
+package com.checkpoint.mgmt_api.examples;
+
+/**
+ * This exception stops the export of a single domain, while the export of the other domains goes on.
+ */
+class DomainExportException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    DomainExportException(String message)
+    {
+        super(message);
+    }
+}
@@ -0,0 +1,143 @@
+package com.checkpoint.mgmt_api.examples;
+
+import com.checkpoint.mgmt_api.utils.JsonStreamWriter;
+import com.checkpoint.mgmt_api.utils.SearchIndex;
+import com.checkpoint.mgmt_api.utils.UidDictionary;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * This class holds the state of the export of a single rulebase: the pending file that the rules of the layer are
+ * written into, and the uids which the rules reference (the page of the layer gets only the names of these uids,
+ * and the search index of the package gets the positions of the rules that reference every uid).
+ * Every layer has its own context, so the layers of a package (e.g. its inline layers) can be exported at the same time.
+ * A context is used by a single thread.
+ */
+class LayerExportContext implements Closeable {
+
+    private final PackageExportContext packageContext;
+
+    //The rules are written into a pending file, which is moved to the json file of the layer once the layer is done
+    //(a layer which is shared by several packages may be written by several threads)
+    private final File rulebaseFile;
+    private JsonStreamWriter rulbaseWriter = null;
+    //The uids which are referenced by the rules that were written into the pending file
+    private UidDictionary referencedUids = new UidDictionary();
+    //The positions of the rules that reference every uid (null if the package doesn't have a search index)
+    private SearchIndex.LayerRules layerRules;
+
+    /**
+     * @param packageContext the export context of the package that the layer belongs to
+     * @param rulebaseFile the pending file of the rulebase
+     */
+    LayerExportContext(PackageExportContext packageContext, File rulebaseFile)
+    {
+        this.packageContext = packageContext;
+        this.rulebaseFile = rulebaseFile;
+        this.layerRules = createLayerRules();
+    }
+
+    PackageExportContext getPackage()
+    {
+        return packageContext;
+    }
+
+    /**
+     * This function returns the writer of the layer, the pending file is opened by the first call
+     *
+     * @return the writer
+     * @throws IOException in case the file can't be opened
+     */
+    JsonStreamWriter getRulbaseWriter() throws IOException
+    {
+        if (rulbaseWriter == null) {
+            rulbaseWriter = new JsonStreamWriter(rulebaseFile);
+            rulbaseWriter.beginArray();
+        }
+        return rulbaseWriter;
+    }
+
+    /**
+     * This function writes a given rule into the pending file, and collects the uids which the rule references
+     *
+     * @param rule the rule
+     * @throws IOException in case of a write error
+     */
+    void writeRule(Object rule) throws IOException
+    {
+        getRulbaseWriter().writeElement(rule);
+        if (layerRules == null) {
+            UidDictionary.collectUids(rule, referencedUids);
+            return;
+        }
+        //The uids of every rule are added to the search index as well
+        UidDictionary ruleUids = new UidDictionary();
+        UidDictionary.collectUids(rule, ruleUids);
+        referencedUids.putAll(ruleUids);
+        layerRules.addRule(rule, ruleUids.keySet());
+    }
+
+    /**
+     * @return the uids which are referenced by the rules of the pending file
+     */
+    UidDictionary getReferencedUids()
+    {
+        return referencedUids;
+    }
+
+    /**
+     * @return the positions of the rules of the pending file that reference every uid, null if the package doesn't
+     *         have a search index
+     */
+    SearchIndex.LayerRules getLayerRules()
+    {
+        return layerRules;
+    }
+
+    private SearchIndex.LayerRules createLayerRules()
+    {
+        return packageContext.getSearchIndex() != null ? new SearchIndex.LayerRules() : null;
+    }
+
+    /**
+     * This function ends the array of the rules and closes the pending file.
+     * The caller moves the file to its final place. If the rulebase is written again (e.g. as a failed rulebase)
+     * a new pending file is opened, without rules and referenced uids.
+     *
+     * @return the pending file of the layer
+     * @throws IOException in case of a write error
+     */
+    File finishRulebaseFile() throws IOException
+    {
+        JsonStreamWriter writer = getRulbaseWriter();
+        rulbaseWriter = null;
+        referencedUids = new UidDictionary();
+        layerRules = createLayerRules();
+        try {
+            writer.endArray();
+        }
+        finally {
+            writer.close();
+        }
+        return rulebaseFile;
+    }
+
+    /**
+     * This function closes the writer and deletes the pending file (unless it was moved)
+     *
+     * @throws IOException in case the file can't be closed or deleted
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if (rulbaseWriter != null) {
+            rulbaseWriter.close();
+            rulbaseWriter = null;
+        }
+        if (rulebaseFile.exists() && !rulebaseFile.delete()) {
+            throw new IOException("Failed to delete '" + rulebaseFile + "'");
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package com.checkpoint.mgmt_api.examples;
+
+import com.checkpoint.mgmt_api.utils.SearchIndex;
+import com.checkpoint.mgmt_api.utils.UidDictionary;
+import org.json.simple.JSONObject;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
+
+/**
+ * This class holds the state of the export of a single policy package: the export contexts of its layers,
+ * the objects which the package uses and the counters of their types.
+ * Every package has its own context, so several packages can be exported at the same time.
+ * The inline layers of the package are exported by the layer executor, so the objects collections are accessed
+ * while holding the lock of the context.
+ */
+class PackageExportContext implements Closeable {
+
+    private static final String PENDING_SUFFIX = ".json.part";
+
+    private final DomainExportContext domain;
+    private final String packageName;
+
+    //Every layer is written into its own pending file, the prefix of these files
+    private final String rulebaseFilePrefix;
+    private int layerContextsCounter = 0;
+    private final Set<LayerExportContext> openLayerContexts = new HashSet<>();
+    //The inline layers which were scheduled on the layer executor and weren't waited for yet
+    private final Queue<Future<?>> pendingInlineLayers = new ConcurrentLinkedQueue<>();
+
+    //Number of objects of each type in the package
+    private JSONObject allTypes = null;
+    //The objects which are referenced by the package (the package's view of the object store)
+    private final UidDictionary uidToName;
+    private final Queue<String> nestedObjectsToRetrieve = new LinkedList<>();
+    //The nested objects which were added to the queue (in order to add every object only once)
+    private final Set<String> requestedNestedObjects = new HashSet<>();
+    //The rules of the layers which use every object (null if the search index isn't written)
+    private final SearchIndex searchIndex;
+
+    /**
+     * @param domain the export context of the domain that the package belongs to
+     * @param packageName the package name
+     * @param rulebaseFilePrefix the prefix of the pending files of the layers
+     * @param searchIndex the search index of the package, null if the search index isn't written
+     */
+    PackageExportContext(DomainExportContext domain, String packageName, String rulebaseFilePrefix,
+                         SearchIndex searchIndex)
+    {
+        this.domain = domain;
+        this.packageName = packageName;
+        this.rulebaseFilePrefix = rulebaseFilePrefix;
+        this.searchIndex = searchIndex;
+        this.uidToName = new UidDictionary(domain.getNamesPool());
+    }
+
+    DomainExportContext getDomain()
+    {
+        return domain;
+    }
+
+    String getPackageName()
+    {
+        return packageName;
+    }
+
+    /**
+     * This function creates the context of a layer export, with its own pending file
+     *
+     * @return the context
+     */
+    synchronized LayerExportContext openLayerContext()
+    {
+        layerContextsCounter++;
+        LayerExportContext context = new LayerExportContext(this,
+                new File(rulebaseFilePrefix + "-" + layerContextsCounter + PENDING_SUFFIX));
+        openLayerContexts.add(context);
+        return context;
+    }
+
+    /**
+     * This function closes a given layer context and deletes its pending file
+     *
+     * @param context the context
+     * @return true on success, otherwise false.
+     */
+    synchronized boolean closeLayerContext(LayerExportContext context)
+    {
+        openLayerContexts.remove(context);
+        try {
+            context.close();
+        }
+        catch (IOException e) {
+            return false;
+        }
+        return true;
+    }
+
+    Queue<Future<?>> getPendingInlineLayers()
+    {
+        return pendingInlineLayers;
+    }
+
+    JSONObject getAllTypes()
+    {
+        return allTypes;
+    }
+
+    /**
+     * Add one to the counter of a given object type.
+     *
+     * @param type the object type
+     */
+    void countType(String type)
+    {
+        if (allTypes == null) {
+            allTypes = new JSONObject();
+        }
+        if (allTypes.containsKey(type)) {//type already exists, add one to the counter
+            int count = Integer.parseInt(allTypes.get(type).toString());
+            count++;
+            allTypes.put(type, count);
+        }
+        else {
+            allTypes.put(type, 1);
+        }
+    }
+
+    Map<String, String> getUidToName()
+    {
+        return uidToName;
+    }
+
+    /**
+     * This function returns the names of the given uids (e.g. the uids which are referenced by the rules of a layer),
+     * the uids which aren't referenced by the package are skipped.
+     * The layers may add objects meanwhile, so the names are copied.
+     *
+     * @param uids the uids
+     * @return the names of the uids
+     */
+    synchronized UidDictionary getUidToNameSubset(Collection<String> uids)
+    {
+        UidDictionary subset = new UidDictionary();
+        for (String uid : uids) {
+            String name = uidToName.get(uid);
+            if (name != null) {
+                subset.put(uid, name);
+            }
+        }
+        return subset;
+    }
+
+    SearchIndex getSearchIndex()
+    {
+        return searchIndex;
+    }
+
+    Queue<String> getNestedObjectsToRetrieve()
+    {
+        return nestedObjectsToRetrieve;
+    }
+
+    Set<String> getRequestedNestedObjects()
+    {
+        return requestedNestedObjects;
+    }
+
+    /**
+     * This function cancels the inline layers which are still pending, and closes the contexts of the layers
+     *
+     * @throws IOException in case the files can't be closed or deleted
+     */
+    @Override
+    public void close() throws IOException
+    {
+        Future<?> inlineLayer;
+        while ((inlineLayer = pendingInlineLayers.poll()) != null) {
+            inlineLayer.cancel(true);
+        }
+
+        boolean closed = true;
+        synchronized (this) {
+            for (LayerExportContext context : new ArrayList<>(openLayerContexts)) {
+                closed &= closeLayerContext(context);
+            }
+        }
+        if (!closed) {
+            throw new IOException("Failed to delete the pending files of package '" + packageName + "'");
+        }
+    }
+}
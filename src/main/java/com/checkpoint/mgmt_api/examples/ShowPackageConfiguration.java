@@ -1,20 +1,26 @@
 package com.checkpoint.mgmt_api.examples;
 
 import com.checkpoint.mgmt_api.client.ApiClient;
-import com.checkpoint.mgmt_api.objects.GatewayAndServer;
+import com.checkpoint.mgmt_api.utils.AdaptiveLimit;
+import com.checkpoint.mgmt_api.utils.ArchiveFormat;
+import com.checkpoint.mgmt_api.utils.ArchiveSink;
+import com.checkpoint.mgmt_api.utils.ArchiveWriter;
 import com.checkpoint.mgmt_api.utils.HtmlUtils;
+import com.checkpoint.mgmt_api.utils.SearchIndex;
 import org.json.simple.JSONObject;
 
 import java.io.Console;
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.text.MessageFormat;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.FileHandler;
 import java.util.logging.Formatter;
 import java.util.logging.LogRecord;
@@ -28,22 +34,20 @@ public enum ShowPackageConfiguration {
     INSTANCE;
 
     private static final String TOOL_VERSION     = "v2.0.6";
-    private static final String TAR_SUFFIX       = ".tar.gz";
     private static final String LOG_SUFFIX       = ".elg";
     private static final String PREFIX           = "show_package-";
-    //Temp file Names for the data
-    private static final String OBJECTS_FILE     = "objects.txt";
-    private static final String RULEBASE_FILE    = "rulebase.txt";
+    //Pending file name for the rulebases (a number is added for every package and every layer)
+    private static final String RULEBASE_FILE    = "rulebase";
     /*Management server IP address*/
     private static String server                 = ApiClient.LOCAL_SERVER_IP;
 
-    /*Set the names of the tar and log files*/
-    private static final String tarName;
+    /*Set the names of the result and log files (the suffix of the result file is set by the output format)*/
+    private static final String resultName;
     private static final String logFileName;
     static {
         SimpleDateFormat formatDate = new SimpleDateFormat("YYYY-MM-dd_HH-mm-ss");
         String date  = formatDate.format(new Date());
-        tarName      = PREFIX + date + TAR_SUFFIX;
+        resultName   = PREFIX + date;
         logFileName  = PREFIX + date + LOG_SUFFIX;
     }
 
@@ -65,18 +69,54 @@ public enum ShowPackageConfiguration {
     private static boolean showRulesHitCounts    = false;
 
     private static Integer queryLimit            = null;
+    private static boolean adaptiveQueryLimit    = false;
+    private static final int MAX_QUERY_LIMIT     = 500;
+    private static AdaptiveLimit rulebasePageLimit;
 
     private static final int DEFAULT_QUERY_LIMIT = 10;
+
+    /*Number of threads that run the API calls of all the layers, packages and nested objects*/
+    private static Integer fetchThreads          = null;
+    private static final int DEFAULT_FETCH_THREADS = 2;
+    private static final int MAX_FETCH_THREADS     = 64;
+    private static ExecutorService fetchExecutor;
+    private static ExecutorService layerExecutor;
+
+    /*Number of packages that are exported in parallel*/
+    private static Integer parallelPackages      = null;
+    private static final int DEFAULT_PARALLEL_PACKAGES = 1;
+    private static final int MAX_PARALLEL_PACKAGES     = 16;
+
+    /*Number of nested objects that are retrieved in each show-objects call*/
+    private static Integer objectsBatchSize        = null;
+    private static boolean adaptiveObjectsBatchSize = false;
+    private static final int MAX_OBJECTS_BATCH_SIZE = 500;
+    private static AdaptiveLimit objectsBatchLimit;
+
+    /*A call that takes longer than that is slow, the adaptive limits are reduced after it*/
+    private static final long SLOW_RESPONSE_MILLIS = 20000;
+
+    /*Directory of the persistent cache, which keeps the objects and the rulebases between runs*/
+    private static String cacheDirectory         = null;
+
+    /*Incremental export: only the layers which were changed since the given session are exported again,
+      the files of the other layers are copied from the previous export*/
+    private static String sinceSessionUid        = null;
+    private static String previousExportPath     = null;
+    private static String previousExportFolderPath;
+
     private static Boolean showMembership        = null;
 
     private static Boolean dereferenceGroupMembers = null;
-    private List<String> installedPackages       = new ArrayList<>();
-    private static Map<String, String> uidToName = new HashMap<>();
-    private static Queue<String> nestedObjectsToRetrieve = new LinkedList<>();
-    List<GatewayAndServer> gatewaysWithPolicy    = new ArrayList<>();
-    private static Set<String> knownInlineLayers = new HashSet<>();
     private static String publishedSessionUid;
 
+    /*Multi-domain export: the domains which are exported in a single run (each one with its own login)*/
+    private static boolean allDomains            = false;
+    private static List<String> domainNames      = new ArrayList<>();
+    private static Integer parallelDomains       = null;
+    private static final int DEFAULT_PARALLEL_DOMAINS = 4;
+    private static final int MAX_PARALLEL_DOMAINS     = 32;
+
     // Indicates whether to show Access/Threat/NAT policy as part of policy package. Default is true.
     private static boolean doShowAccessPolicy = true;
     private static boolean doShowThreatPolicy = true;
@@ -88,16 +128,29 @@ public enum ShowPackageConfiguration {
     private FileHandler fileHandler;
     /*Paths settings*/
 
-    private static String tarGzPath          = tarName;
+    private static String archivePath        = null;
     private static String resultFolderPath;
+    /*The result files are appended to the archive file while the export is running,
+      with --direct-archive they are deleted as soon as they are in the archive file*/
+    private static boolean directArchive    = false;
+    /*The format of the result: an archive file (tar.gz, tar.zst or tar) or the result folder itself (dir)*/
+    private static ArchiveFormat outputFormat = ArchiveFormat.TAR_GZ;
+    private static Integer zstdLevel        = null;
+    /*The rulebase pages of a package load its uid_to_name from a single shared script*/
+    private static boolean sharedDictionary = false;
+    /*Every package gets a search index script, which the pages of the package use to find objects and their rules*/
+    private static boolean searchIndex      = true;
+    private static final int DEFAULT_ZSTD_LEVEL = 3;
+    private static final int MAX_ZSTD_LEVEL     = 22;
+    private ArchiveSink archiveSink         = null;
     //Define if the function needs only to show the existing packages
 
     private static boolean showPackagesList = false;
     private static String proxy             = "";
     private HtmlUtils htmlUtil              = HtmlUtils.INSTANCE;
-    private static RandomAccessFile objectsWriter;
-
-    private static RandomAccessFile rulbaseWriter;
+    //The contexts of the packages which are being exported (their pending files are deleted when the tool exits)
+    private static Set<PackageExportContext> openPackageContexts = new HashSet<>();
+    private static int packageContextsCounter = 0;
     void initializeParameters(String[] args) throws Exception{
 
         //Default debug level
@@ -105,33 +158,129 @@ public enum ShowPackageConfiguration {
 
         String debugString = resolveFlags(args);
 
+        if ((sinceSessionUid == null) != (previousExportPath == null)) {
+            final String errorMessage = "The flags --since-session and --previous-export must be used together";
+            System.out.println(errorMessage);
+            throw new IllegalArgumentException(errorMessage);
+        }
+
+        validateMultiDomainFlags();
+
         //Load html templates
         htmlUtil.readTemplatesFromClassPath();
+        htmlUtil.setSharedDictionary(sharedDictionary);
+        htmlUtil.setSearchIndexEnabled(searchIndex);
+
+        if (directArchive && !deleteTempFile) {
+            final String errorMessage = "The flags --direct-archive and " + Options.deleteTempFiles.getFlag()
+                    + " can't be used together";
+            System.out.println(errorMessage);
+            throw new IllegalArgumentException(errorMessage);
+        }
+
+        validateOutputFormatFlags();
 
         //Set directory path
         setTarPath();
         configureLogFile(debugString);
-        //Set the writer to the temps file
-        setTempFilesWriter();
+
+        if (outputFormat.isArchive()) {
+            //The finished result files are compressed (by all the cores) while the export is running
+            ArchiveWriter archiveWriter = outputFormat.createWriter(archivePath, Runtime.getRuntime().availableProcessors(),
+                                                                    getZstdLevel());
+            archiveSink = new ArchiveSink(resultFolderPath, archiveWriter, directArchive);
+            htmlUtil.setArchiveSink(archiveSink);
+        }
+    }
+
+    /**
+     * This function checks that the flags of the result file match the output format.
+     */
+    private void validateOutputFormatFlags()
+    {
+        String errorMessage = null;
+        if (!outputFormat.isArchive() && directArchive) {
+            errorMessage = "The flag --direct-archive can't be used with --output-format " + outputFormat.getName();
+        }
+        else if (zstdLevel != null && outputFormat != ArchiveFormat.TAR_ZST) {
+            errorMessage = "The flag --zstd-level can be used only with --output-format "
+                    + ArchiveFormat.TAR_ZST.getName();
+        }
+
+        if (errorMessage != null) {
+            System.out.println(errorMessage);
+            throw new IllegalArgumentException(errorMessage);
+        }
     }
 
     /**
-     * This function open write access to the temps files
-     * @throws IOException In case the write access denied
+     * This function checks that the flags of a multi-domain export aren't used with flags of a single domain.
      */
-    void setTempFilesWriter() throws IOException
+    private void validateMultiDomainFlags()
     {
-        //Open write access to the temp file of the objects
-      objectsWriter = new RandomAccessFile(new File(resultFolderPath + System.getProperty("file.separator") +
-                                                                OBJECTS_FILE), "rw");
+        if (allDomains && !domainNames.isEmpty()) {
+            final String errorMessage = "The flags --all-domains and --domains can't be used together";
+            System.out.println(errorMessage);
+            throw new IllegalArgumentException(errorMessage);
+        }
+        if (!isMultiDomainExport()) {
+            return;
+        }
+
+        String singleDomainFlag = null;
+        if (domain != null && !domain.isEmpty()) {
+            singleDomainFlag = Options.domainName.getFlag();
+        }
+        else if (showPackagesList) {
+            singleDomainFlag = Options.listOfPackages.getFlag();
+        }
+        else if (publishedSessionUid != null) {
+            singleDomainFlag = Options.switchSession.getFlag();
+        }
+        else if (sinceSessionUid != null) {
+            singleDomainFlag = Options.sinceSession.getFlag();
+        }
 
-      objectsWriter.writeBytes("[");
+        if (singleDomainFlag != null) {
+            final String errorMessage = "The flag " + singleDomainFlag + " can't be used with --all-domains or --domains";
+            System.out.println(errorMessage);
+            throw new IllegalArgumentException(errorMessage);
+        }
+    }
 
-        //Open write access to the temp file of the rulebase
-      rulbaseWriter = new RandomAccessFile(new File(resultFolderPath + System.getProperty("file.separator") +
-                                                                RULEBASE_FILE), "rw");
+    /**
+     * This function creates the context of a package export, the pending rulebase files of its layers are named
+     * after the package's number
+     * @param domain the export context of the domain that the package belongs to
+     * @param packageName the package name
+     * @return the context
+     */
+    synchronized PackageExportContext openPackageContext(DomainExportContext domain, String packageName)
+    {
+        packageContextsCounter++;
+        String prefix = resultFolderPath + System.getProperty("file.separator");
+        PackageExportContext context = new PackageExportContext(domain, packageName,
+                prefix + RULEBASE_FILE + "-" + packageContextsCounter, searchIndex ? new SearchIndex() : null);
+        openPackageContexts.add(context);
 
-      rulbaseWriter.writeBytes("[");
+        return context;
+    }
+
+    /**
+     * This function closes a given package context and deletes its pending files
+     * @param context the context
+     * @return true on success, otherwise false.
+     */
+    synchronized boolean closePackageContext(PackageExportContext context)
+    {
+        openPackageContexts.remove(context);
+        try {
+            context.close();
+        }
+        catch (IOException e) {
+            return false;
+        }
+        return true;
     }
 
     /**
@@ -149,20 +298,24 @@ public enum ShowPackageConfiguration {
             Path resultStringPath = Paths.get(resultFolderPath);
 
             String resultStringPathToString = resultStringPath.toString();
-            if(resultStringPathToString.endsWith(".tar.gz")){
-                /* The user entered tar file name */
-                tarGzPath = resultStringPathToString;
+            if(outputFormat.isArchive() && resultStringPathToString.endsWith(outputFormat.getSuffix())){
+                /* The user entered archive file name */
+                archivePath = resultStringPathToString;
                 resultPath = resultStringPath.getParent().toString();
             }
             else {
                 /* The user entered only folder path */
-                tarGzPath = resultStringPathToString + System.getProperty("file.separator") + tarName;
                 resultPath = resultStringPathToString;
             }
         }
+        if (outputFormat.isArchive() && archivePath == null) {
+            archivePath = resultPath + System.getProperty("file.separator") + resultName + outputFormat.getSuffix();
+        }
 
-        String folderName = UUID.randomUUID().toString();
+        //The result folder is temporary unless it's the result itself
+        String folderName = outputFormat.isArchive() ? UUID.randomUUID().toString() : resultName;
         resultFolderPath = resultPath + System.getProperty("file.separator") + folderName;
+        previousExportFolderPath = resultFolderPath + "-previous";
 
         File file = new File(resultFolderPath);
         if (!file.exists() && !file.mkdir()) {
@@ -181,14 +334,11 @@ public enum ShowPackageConfiguration {
             throw new Exception("Directory '" + resultFolderPath + "' is not empty!");
         }
 
-        File fileTar = new File(tarGzPath);
-        if(fileTar.exists()){
-            System.out.println("File '" + tarGzPath + "' is already exists!");
-            throw new Exception("File '" + tarGzPath + "' is already exists!");
+        if(archivePath != null && new File(archivePath).exists()){
+            System.out.println("File '" + archivePath + "' is already exists!");
+            throw new Exception("File '" + archivePath + "' is already exists!");
         }
 
-        htmlUtil.setResultFolderPath(resultFolderPath + System.getProperty("file.separator"));
-
     }
 
     /**
@@ -214,7 +364,8 @@ public enum ShowPackageConfiguration {
                 if(option.equals(Options.listOfPackages) || option.equals(Options.help)
                         || option.equals(Options.debugInfo) || option.equals(Options.unsafeState)
                         || option.equals(Options.showHitCounts) || option.equals(Options.deleteTempFiles)
-                        || option.equals(Options.version)){
+                        || option.equals(Options.version) || option.equals(Options.allDomains)
+                        || option.equals(Options.directArchive) || option.equals(Options.sharedDictionary)){
                     //Options that don't require a value after the flag
                     option.runCommand("");
                     i++;
@@ -288,26 +439,33 @@ public enum ShowPackageConfiguration {
      */
     JSONObject createPayloadForLogin(boolean loginAsRoot){
 
+        return createPayloadForLogin(loginAsRoot, domain);
+    }
+
+    /**
+     *This function creates login payload to a given domain.
+     * The user name and the password which are read from the console are kept, so the user is asked for them once
+     * even if several domains are exported.
+     * @param loginAsRoot True, if the login is to local host.
+     * @param domainName the domain to login to (null or empty for the default domain)
+     * @return {@link JSONObject} containing the username, password and domain
+     */
+    synchronized JSONObject createPayloadForLogin(boolean loginAsRoot, String domainName){
+
         JSONObject payload = new JSONObject();
-        String missing_arg;
         if (!loginAsRoot) {
-            if (username != null && !username.isEmpty()) {
-                payload.put("user", username);
+            if (username == null || username.isEmpty()) {
+                username = readUserName();
             }
-            else{
-                String userName = readUserName();
-                payload.put("user", userName);
-            }
-            if (password != null && !password.isEmpty()) {
-                payload.put("password", password);
-            }
-            else{
-                char[] passwordFromConsole = readPassword();
-                payload.put("password", new String(passwordFromConsole));
+            payload.put("user", username);
+
+            if (password == null || password.isEmpty()) {
+                password = new String(readPassword());
             }
+            payload.put("password", password);
         }
-        if(domain != null && !domain.isEmpty()){
-            payload.put("domain",domain);
+        if(domainName != null && !domainName.isEmpty()){
+            payload.put("domain",domainName);
         }
 
         // Read only flag
@@ -318,24 +476,15 @@ public enum ShowPackageConfiguration {
     }
 
     /**
-     * This function closes and deletes the temp files
+     * This function closes the open package contexts and deletes their pending files
      * @return true on success, otherwise false.
      */
-    boolean closeAndDeleteFile(){
-        try {
-            if (objectsWriter != null) {
-                objectsWriter.close();
-                Files.delete(Paths.get(resultFolderPath +  System.getProperty("file.separator") + OBJECTS_FILE));
-            }
-            if (rulbaseWriter != null) {
-                rulbaseWriter.close();
-                Files.delete(Paths.get(resultFolderPath +  System.getProperty("file.separator") + RULEBASE_FILE));
-            }
+    synchronized boolean closeAndDeleteFile(){
+        boolean closed = true;
+        for (PackageExportContext context : new ArrayList<>(openPackageContexts)) {
+            closed &= closePackageContext(context);
         }
-        catch (IOException e) {
-            return false;
-        }
-        return true;
+        return closed;
     }
 
     /**
@@ -416,19 +565,35 @@ public enum ShowPackageConfiguration {
         return userRequestGateway;
     }
 
-    Map<String, String> getUidToName()
+    /**
+     * Get the path of the archive file
+     *
+     * @return the archive file path, null if the output format doesn't have an archive file
+     */
+    String getArchivePath()
     {
-        return uidToName;
+        return archivePath;
     }
 
-    Queue<String> getNestedObjectsToRetrieve()
+    ArchiveFormat getOutputFormat()
     {
-        return nestedObjectsToRetrieve;
+        return outputFormat;
     }
 
-    String getTarGzPath()
+    int getZstdLevel()
     {
-        return tarGzPath;
+        return zstdLevel != null ? zstdLevel : DEFAULT_ZSTD_LEVEL;
+    }
+
+    /**
+     * Get the sink which writes the archive file while the export is running
+     *
+     * @return the archive sink, null if the parameters weren't initialized or the output format doesn't have an
+     *         archive file
+     */
+    ArchiveSink getArchiveSink()
+    {
+        return archiveSink;
     }
 
     MyLogger getLogger()
@@ -446,21 +611,6 @@ public enum ShowPackageConfiguration {
         return password;
     }
 
-    RandomAccessFile getObjectsWriter()
-    {
-        return objectsWriter;
-    }
-
-    RandomAccessFile getRulbaseWriter()
-    {
-        return rulbaseWriter;
-    }
-
-    List<String> getInstalledPackages()
-    {
-        return installedPackages;
-    }
-
     boolean isDeleteTempFile(){
         return deleteTempFile;
     }
@@ -495,40 +645,222 @@ public enum ShowPackageConfiguration {
         return htmlUtil;
     }
 
-    List<GatewayAndServer> getGatewaysWithPolicy(){
-        return gatewaysWithPolicy;
+    public String getPublishedSessionUid() {
+        return publishedSessionUid;
     }
 
-    void setGatewaysWithPolicy(GatewayAndServer gateway){
-        gatewaysWithPolicy.add(gateway);
+    public String getResultFolderPath()
+    {
+        return resultFolderPath;
     }
 
-    public void setKnownInlineLayers(String knownInlineLayer)
+    public Integer getQueryLimit()
     {
-        knownInlineLayers.add(knownInlineLayer);
+        return queryLimit == null ? DEFAULT_QUERY_LIMIT : queryLimit;
     }
 
-    public boolean isKnownInlineLayer(String knownInlineLayer){
-        return knownInlineLayers.contains(knownInlineLayer);
+    /**
+     * Get the number of rules to retrieve in each rulebase page.
+     * The limit is the query limit, unless the user asked for an adaptive query limit. In that case the query limit
+     * is the first limit, and it is raised toward the maximum while the server responds quickly.
+     *
+     * @return the rulebase page limit
+     */
+    synchronized AdaptiveLimit getRulebasePageLimit()
+    {
+        if (rulebasePageLimit == null) {
+            if (adaptiveQueryLimit) {
+                rulebasePageLimit = new AdaptiveLimit(getQueryLimit(), 1, MAX_QUERY_LIMIT, SLOW_RESPONSE_MILLIS);
+            }
+            else {
+                rulebasePageLimit = AdaptiveLimit.fixed(getQueryLimit());
+            }
+        }
+        return rulebasePageLimit;
+    }
 
+    /**
+     * Get the number of nested objects to retrieve in each show-objects call.
+     * The limit is fixed, unless the user asked for an adaptive batch size.
+     * If the user didn't set the batch size, the query limit is used.
+     *
+     * @return the objects batch limit
+     */
+    synchronized AdaptiveLimit getObjectsBatchLimit()
+    {
+        if (objectsBatchLimit == null) {
+            int initialBatchSize = objectsBatchSize == null ? getQueryLimit() : objectsBatchSize;
+            if (adaptiveObjectsBatchSize) {
+                objectsBatchLimit = new AdaptiveLimit(initialBatchSize, 1, MAX_OBJECTS_BATCH_SIZE, SLOW_RESPONSE_MILLIS);
+            }
+            else {
+                objectsBatchLimit = AdaptiveLimit.fixed(initialBatchSize);
+            }
+        }
+        return objectsBatchLimit;
     }
 
-    public String getPublishedSessionUid() {
-        return publishedSessionUid;
+    public int getFetchThreads()
+    {
+        return fetchThreads == null ? DEFAULT_FETCH_THREADS : fetchThreads;
     }
 
-    public String getResultFolderPath()
+    /**
+     * Get the executor which runs the API calls of the tool.
+     * The executor is created once and shared by all the layers, packages and the nested objects resolver.
+     *
+     * @return the fetch executor
+     */
+    synchronized ExecutorService getFetchExecutor()
     {
-        return resultFolderPath;
+        if (fetchExecutor == null) {
+            fetchExecutor = Executors.newFixedThreadPool(getFetchThreads(), createThreadFactory("fetch-"));
+        }
+        return fetchExecutor;
     }
 
-    public Integer getQueryLimit()
+    /**
+     * Get the executor which exports the inline layers.
+     * The inline layers of a package are exported in parallel, the layer threads only wait for the API calls,
+     * which run on the fetch executor. The package waits for its inline layers before it writes its objects.
+     *
+     * @return the layer executor
+     */
+    synchronized ExecutorService getLayerExecutor()
     {
-        return queryLimit == null ? DEFAULT_QUERY_LIMIT : queryLimit;
+        if (layerExecutor == null) {
+            layerExecutor = Executors.newFixedThreadPool(getFetchThreads(), createThreadFactory("layer-"));
+        }
+        return layerExecutor;
+    }
+
+    public int getParallelPackages()
+    {
+        return parallelPackages == null ? DEFAULT_PARALLEL_PACKAGES : parallelPackages;
+    }
+
+    /**
+     * Create an executor which exports packages.
+     * The package threads only wait for the API calls, which run on the fetch executor.
+     *
+     * @param threads the number of packages that are exported in parallel
+     *
+     * @return the package executor, the caller should shut it down
+     */
+    ExecutorService createPackageExecutor(int threads)
+    {
+        return Executors.newFixedThreadPool(threads, createThreadFactory("package-"));
+    }
+
+    /**
+     * Check whether several domains are exported in this run (--all-domains or --domains).
+     *
+     * @return True in case of a multi-domain export
+     */
+    boolean isMultiDomainExport()
+    {
+        return allDomains || !domainNames.isEmpty();
+    }
+
+    boolean isAllDomains()
+    {
+        return allDomains;
+    }
+
+    /**
+     * Get the domains that the user asked to export (--domains).
+     *
+     * @return the domain names, empty if the user didn't list domains
+     */
+    List<String> getDomainNames()
+    {
+        return domainNames;
+    }
+
+    public int getParallelDomains()
+    {
+        return parallelDomains == null ? DEFAULT_PARALLEL_DOMAINS : parallelDomains;
+    }
+
+    /**
+     * Create an executor which exports domains.
+     * The domain threads only wait for the API calls, which run on the fetch executor.
+     *
+     * @param threads the number of domains that are exported in parallel
+     *
+     * @return the domain executor, the caller should shut it down
+     */
+    ExecutorService createDomainExecutor(int threads)
+    {
+        return Executors.newFixedThreadPool(threads, createThreadFactory("domain-"));
+    }
+
+    private static ThreadFactory createThreadFactory(final String namePrefix)
+    {
+        final AtomicInteger threadNumber = new AtomicInteger(1);
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, namePrefix + threadNumber.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * This function stops the fetch executor and the layer executor (if they were created)
+     */
+    synchronized void shutdownFetchExecutor()
+    {
+        if (layerExecutor != null) {
+            layerExecutor.shutdownNow();
+            layerExecutor = null;
+        }
+        if (fetchExecutor != null) {
+            fetchExecutor.shutdownNow();
+            fetchExecutor = null;
+        }
     }
 
     public boolean showRulesHitCounts() { return showRulesHitCounts; }
 
+    /**
+     * Get the directory of the persistent cache.
+     *
+     * @return the cache directory, or null if the user didn't ask for a cache
+     */
+    String getCacheDirectory()
+    {
+        return cacheDirectory;
+    }
+
+    /**
+     * Get the uid of the published session that the incremental export is based on.
+     *
+     * @return the session uid, or null if the user didn't ask for an incremental export
+     */
+    String getSinceSessionUid()
+    {
+        return sinceSessionUid;
+    }
+
+    String getPreviousExportPath()
+    {
+        return previousExportPath;
+    }
+
+    /**
+     * Get the folder that the previous export is extracted into.
+     *
+     * @return the folder path
+     */
+    String getPreviousExportFolderPath()
+    {
+        return previousExportFolderPath;
+    }
+
     public Boolean getShowMembership() { return showMembership; }
 
     public Boolean getDereferenceGroupMembers()
@@ -705,6 +1037,141 @@ public enum ShowPackageConfiguration {
                 return "";
             }
         },
+        directArchive("--direct-archive") {
+            void runCommand(String value)
+            {
+                ShowPackageConfiguration.directArchive = true;
+            }
+
+            void flagToString()
+            {
+                System.out.println("\tDelete every result file as soon as it's added to the archive file," +
+                        "\n\tthe result folder isn't kept on the disk. Can't be used with -r or --output-format dir.");
+            }
+            String debugString()
+            {
+                return "directArchive:(--direct-archive)=" + ShowPackageConfiguration.directArchive;
+            }
+            String value(){
+                return "";
+            }
+        },
+        sharedDictionary("--shared-dictionary") {
+            void runCommand(String value)
+            {
+                ShowPackageConfiguration.sharedDictionary = true;
+            }
+
+            void flagToString()
+            {
+                System.out.println("\tWrite the uid_to_name of every package once into its own script (<package>_uid_to_name.js)," +
+                        "\n\tthe rulebase pages of the package load it instead of having the names inline.");
+            }
+            String debugString()
+            {
+                return "sharedDictionary:(--shared-dictionary)=" + ShowPackageConfiguration.sharedDictionary;
+            }
+            String value(){
+                return "";
+            }
+        },
+        searchIndex("--search-index") {
+            void runCommand(String value)
+            {
+                if (!value.equalsIgnoreCase("true") && !value.equalsIgnoreCase("false")) {
+                    final String errorMessage = "The value of --search-index is invalid (must be true or false)";
+                    System.out.println(errorMessage);
+                    throw new IllegalArgumentException(errorMessage);
+                }
+                ShowPackageConfiguration.searchIndex = Boolean.parseBoolean(value);
+            }
+
+            void flagToString()
+            {
+                System.out.println("\tWhether to write a search index of every package (<package>_search_index.js)," +
+                        "\n\tthe pages of the package use it to find objects and the rules that use them. Default value is True.");
+            }
+            String debugString()
+            {
+                return "searchIndex:(--search-index)=" + ShowPackageConfiguration.searchIndex;
+            }
+            String value(){
+                return " (true|false)";
+            }
+        },
+        outputFormat("--output-format") {
+            void runCommand(String value)
+            {
+                ArchiveFormat format = ArchiveFormat.fromName(value);
+                if (format == null) {
+                    final String errorMessage = "The value of --output-format must be one of: " + formatNames();
+                    System.out.println(errorMessage);
+                    throw new IllegalArgumentException(errorMessage);
+                }
+                ShowPackageConfiguration.outputFormat = format;
+            }
+
+            void flagToString()
+            {
+                System.out.println("\tThe format of the result: " + formatNames() + "." +
+                        "\n\t'dir' keeps the result folder (named after the result) instead of an archive file." +
+                        "\n\tDefault {" + ArchiveFormat.TAR_GZ.getName() + "}");
+            }
+            String debugString()
+            {
+                return "outputFormat:(--output-format)=" + ShowPackageConfiguration.outputFormat.getName();
+            }
+            String value(){
+                return " format";
+            }
+
+            private String formatNames()
+            {
+                StringBuilder names = new StringBuilder();
+                for (ArchiveFormat format : ArchiveFormat.values()) {
+                    if (names.length() > 0) {
+                        names.append(", ");
+                    }
+                    names.append(format.getName());
+                }
+                return names.toString();
+            }
+        },
+        zstdLevel("--zstd-level") {
+            void runCommand(String levelString)
+            {
+                final Integer level;
+
+                try {
+                    level = Integer.valueOf(levelString);
+                    if (level < 1 || level > MAX_ZSTD_LEVEL) {
+                        throw new IllegalArgumentException();
+                    }
+                }
+                catch (IllegalArgumentException e) {
+                    final String errorMessage = "The value of --zstd-level must be an integer in range from 1 to "
+                            + MAX_ZSTD_LEVEL;
+                    System.out.println(errorMessage);
+                    throw new IllegalArgumentException(errorMessage);
+                }
+
+                ShowPackageConfiguration.zstdLevel = level;
+            }
+
+            void flagToString()
+            {
+                System.out.println("\tThe compression level of --output-format tar.zst." +
+                        "\n\tThe level must be in range from 1 to " + MAX_ZSTD_LEVEL +
+                        "\n\tDefault {" + DEFAULT_ZSTD_LEVEL + "}");
+            }
+            String debugString()
+            {
+                return "zstdLevel:(--zstd-level)=" + ShowPackageConfiguration.zstdLevel;
+            }
+            String value(){
+                return " level";
+            }
+        },
         productDirectory("-o") {
             void runCommand(String value)
             {
@@ -713,8 +1180,8 @@ public enum ShowPackageConfiguration {
 
             void flagToString()
             {
-                System.out.println("\tResult path.\n\tPath where to store the result tar file." +
-                                           "\n\tOr path with "+ TAR_SUFFIX + " suffix in order to set tar file name." +
+                System.out.println("\tResult path.\n\tPath where to store the result archive file (or the result folder)." +
+                                           "\n\tOr path with the suffix of the output format (e.g. .tar.gz) in order to set archive file name." +
                                            "\n\tThe default is the current directory.");
             }
             String debugString()
@@ -789,16 +1256,21 @@ public enum ShowPackageConfiguration {
         queryLimit("--query-limit") {
             void runCommand(String limitString)
             {
+                if ("adaptive".equalsIgnoreCase(limitString)) {
+                    ShowPackageConfiguration.adaptiveQueryLimit = true;
+                    return;
+                }
+
                 final Integer limit;
 
                 try {
                     limit = Integer.valueOf(limitString);
-                    if (limit < 1 || limit > 500) {
+                    if (limit < 1 || limit > MAX_QUERY_LIMIT) {
                         throw new IllegalArgumentException();
                     }
                 }
                 catch (IllegalArgumentException e) {
-                    final String errorMessage = "The value of --query-limit must be an integer in range from 1 to 500";
+                    final String errorMessage = "The value of --query-limit must be 'adaptive' or an integer in range from 1 to " + MAX_QUERY_LIMIT;
                     System.out.println(errorMessage);
                     throw new IllegalArgumentException(errorMessage);
                 }
@@ -811,15 +1283,287 @@ public enum ShowPackageConfiguration {
                 System.out.println("\tNo more than that many results will be returned on each call." +
                         "\n\tIncrease the limit to get a faster execution (because of less number of calls in total)" +
                         "\n\tDecrease the limit when your calls are hitting the timeout (e.g. when your rulebase is huge and complex)" +
-                        "\n\tThe limit must be in range from 1 to 500" +
+                        "\n\tUse 'adaptive' in order to raise the limit of the rulebase pages while the server responds quickly" +
+                        "\n\tand to lower it before the calls are hitting the timeout" +
+                        "\n\tThe limit must be 'adaptive' or in range from 1 to " + MAX_QUERY_LIMIT +
                         "\n\tDefault {" + DEFAULT_QUERY_LIMIT + "}");
             }
             String debugString()
             {
-                return "queryLimit:(--query-limit)=" + ShowPackageConfiguration.queryLimit;
+                return "queryLimit:(--query-limit)=" + (ShowPackageConfiguration.adaptiveQueryLimit ?
+                        "adaptive" : ShowPackageConfiguration.queryLimit);
+            }
+            String value(){
+                return " (limit|adaptive)";
+            }
+        },
+        fetchThreads("--fetch-threads") {
+            void runCommand(String threadsString)
+            {
+                final Integer threads;
+
+                try {
+                    threads = Integer.valueOf(threadsString);
+                    if (threads < 1 || threads > MAX_FETCH_THREADS) {
+                        throw new IllegalArgumentException();
+                    }
+                }
+                catch (IllegalArgumentException e) {
+                    final String errorMessage = "The value of --fetch-threads must be an integer in range from 1 to " + MAX_FETCH_THREADS;
+                    System.out.println(errorMessage);
+                    throw new IllegalArgumentException(errorMessage);
+                }
+
+                ShowPackageConfiguration.fetchThreads = threads;
+            }
+
+            void flagToString()
+            {
+                System.out.println("\tNumber of API calls that run in parallel." +
+                        "\n\tThe calls of all the layers, packages and nested objects share these threads" +
+                        "\n\tIncrease the number to get a faster execution on a strong management server" +
+                        "\n\tThe number must be in range from 1 to " + MAX_FETCH_THREADS +
+                        "\n\tDefault {" + DEFAULT_FETCH_THREADS + "}");
+            }
+            String debugString()
+            {
+                return "fetchThreads:(--fetch-threads)=" + ShowPackageConfiguration.fetchThreads;
+            }
+            String value(){
+                return " threads";
+            }
+        },
+        parallelPackages("--parallel-packages") {
+            void runCommand(String packagesString)
+            {
+                final Integer packages;
+
+                try {
+                    packages = Integer.valueOf(packagesString);
+                    if (packages < 1 || packages > MAX_PARALLEL_PACKAGES) {
+                        throw new IllegalArgumentException();
+                    }
+                }
+                catch (IllegalArgumentException e) {
+                    final String errorMessage = "The value of --parallel-packages must be an integer in range from 1 to " + MAX_PARALLEL_PACKAGES;
+                    System.out.println(errorMessage);
+                    throw new IllegalArgumentException(errorMessage);
+                }
+
+                ShowPackageConfiguration.parallelPackages = packages;
+            }
+
+            void flagToString()
+            {
+                System.out.println("\tNumber of policy packages that are exported in parallel." +
+                        "\n\tThe API calls of all the packages share the threads of --fetch-threads" +
+                        "\n\tThe number must be in range from 1 to " + MAX_PARALLEL_PACKAGES +
+                        "\n\tDefault {" + DEFAULT_PARALLEL_PACKAGES + "}");
+            }
+            String debugString()
+            {
+                return "parallelPackages:(--parallel-packages)=" + ShowPackageConfiguration.parallelPackages;
+            }
+            String value(){
+                return " packages";
+            }
+        },
+        allDomains("--all-domains") {
+            void runCommand(String value)
+            {
+                ShowPackageConfiguration.allDomains = true;
+            }
+
+            void flagToString()
+            {
+                System.out.println("\tExport all the domains of a Multi-Domain Server in a single run." +
+                        "\n\tEvery domain has its own login and its own folder and index page in the tar file," +
+                        "\n\tthe main index page lists the domains");
+            }
+            String debugString()
+            {
+                return "allDomains:(--all-domains)=" + ShowPackageConfiguration.allDomains;
+            }
+            String value(){
+                return "";
+            }
+        },
+        domainList("--domains") {
+            void runCommand(String value)
+            {
+                for (String domainName : value.split(",")) {
+                    if (!domainName.trim().isEmpty() && !domainNames.contains(domainName.trim())) {
+                        domainNames.add(domainName.trim());
+                    }
+                }
+                if (domainNames.isEmpty()) {
+                    final String errorMessage = "The value of --domains must be a comma separated list of domain names";
+                    System.out.println(errorMessage);
+                    throw new IllegalArgumentException(errorMessage);
+                }
+            }
+
+            void flagToString()
+            {
+                System.out.println("\tComma separated list of domains which are exported in a single run." +
+                        "\n\tEvery domain has its own login and its own folder and index page in the tar file");
+            }
+            String debugString()
+            {
+                return "domains:(--domains)=" + ShowPackageConfiguration.domainNames;
+            }
+            String value(){
+                return " domain1,domain2,...";
+            }
+        },
+        parallelDomains("--parallel-domains") {
+            void runCommand(String domainsString)
+            {
+                final Integer domains;
+
+                try {
+                    domains = Integer.valueOf(domainsString);
+                    if (domains < 1 || domains > MAX_PARALLEL_DOMAINS) {
+                        throw new IllegalArgumentException();
+                    }
+                }
+                catch (IllegalArgumentException e) {
+                    final String errorMessage = "The value of --parallel-domains must be an integer in range from 1 to " + MAX_PARALLEL_DOMAINS;
+                    System.out.println(errorMessage);
+                    throw new IllegalArgumentException(errorMessage);
+                }
+
+                ShowPackageConfiguration.parallelDomains = domains;
+            }
+
+            void flagToString()
+            {
+                System.out.println("\tNumber of domains that are exported in parallel (with --all-domains or --domains)." +
+                        "\n\tThe API calls of all the domains share the threads of --fetch-threads" +
+                        "\n\tThe number must be in range from 1 to " + MAX_PARALLEL_DOMAINS +
+                        "\n\tDefault {" + DEFAULT_PARALLEL_DOMAINS + "}");
+            }
+            String debugString()
+            {
+                return "parallelDomains:(--parallel-domains)=" + ShowPackageConfiguration.parallelDomains;
+            }
+            String value(){
+                return " domains";
+            }
+        },
+        objectsBatchSize("--objects-batch-size") {
+            void runCommand(String batchSizeString)
+            {
+                if ("adaptive".equalsIgnoreCase(batchSizeString)) {
+                    ShowPackageConfiguration.adaptiveObjectsBatchSize = true;
+                    return;
+                }
+
+                final Integer batchSize;
+
+                try {
+                    batchSize = Integer.valueOf(batchSizeString);
+                    if (batchSize < 1 || batchSize > MAX_OBJECTS_BATCH_SIZE) {
+                        throw new IllegalArgumentException();
+                    }
+                }
+                catch (IllegalArgumentException e) {
+                    final String errorMessage = "The value of --objects-batch-size must be 'adaptive' or an integer in range from 1 to "
+                            + MAX_OBJECTS_BATCH_SIZE;
+                    System.out.println(errorMessage);
+                    throw new IllegalArgumentException(errorMessage);
+                }
+
+                ShowPackageConfiguration.objectsBatchSize = batchSize;
+            }
+
+            void flagToString()
+            {
+                System.out.println("\tNumber of nested objects (e.g. group members) that are retrieved on each show-objects call." +
+                        "\n\tUse 'adaptive' in order to grow the batch while the responses are fast" +
+                        "\n\tand to shrink it on errors or slow responses" +
+                        "\n\tThe batch size must be 'adaptive' or in range from 1 to " + MAX_OBJECTS_BATCH_SIZE +
+                        "\n\tDefault {the query limit}");
+            }
+            String debugString()
+            {
+                return "objectsBatchSize:(--objects-batch-size)=" + (ShowPackageConfiguration.adaptiveObjectsBatchSize ?
+                        "adaptive" : ShowPackageConfiguration.objectsBatchSize);
             }
             String value(){
-                return " limit";
+                return " (size|adaptive)";
+            }
+        },
+        sinceSession("--since-session") {
+            void runCommand(String value)
+            {
+                ShowPackageConfiguration.sinceSessionUid = value;
+            }
+
+            void flagToString()
+            {
+                System.out.println("\tIncremental export: the uid of the published session of a previous export." +
+                        "\n\tOnly the layers which were changed since that session are exported again," +
+                        "\n\tthe files of the other layers are copied from the previous export (--previous-export)");
+            }
+            String debugString()
+            {
+                return "sinceSession:(--since-session)=" + ShowPackageConfiguration.sinceSessionUid;
+            }
+            String value(){
+                return " published session uid";
+            }
+        },
+        previousExport("--previous-export") {
+            void runCommand(String value)
+            {
+                File previousExport = new File(value);
+                boolean isArchive = ArchiveFormat.fromArchivePath(value) != null && previousExport.isFile();
+                if (!isArchive && !previousExport.isDirectory()) {
+                    final String errorMessage = "The value of --previous-export must be an existing result file (e.g. tar.gz) or result folder";
+                    System.out.println(errorMessage);
+                    throw new IllegalArgumentException(errorMessage);
+                }
+                ShowPackageConfiguration.previousExportPath = value;
+            }
+
+            void flagToString()
+            {
+                System.out.println("\tThe result file (or the result folder) of a previous export, used with --since-session");
+            }
+            String debugString()
+            {
+                return "previousExport:(--previous-export)=" + ShowPackageConfiguration.previousExportPath;
+            }
+            String value(){
+                return " path";
+            }
+        },
+        cacheDir("--cache-dir") {
+            void runCommand(String value)
+            {
+                File directory = new File(value);
+                if (directory.exists() && !directory.isDirectory()) {
+                    final String errorMessage = "The value of --cache-dir must be a directory";
+                    System.out.println(errorMessage);
+                    throw new IllegalArgumentException(errorMessage);
+                }
+                ShowPackageConfiguration.cacheDirectory = value;
+            }
+
+            void flagToString()
+            {
+                System.out.println("\tDirectory of a persistent cache which keeps the objects and the rulebases between runs." +
+                        "\n\tThe cache is tagged with the published session, as long as no session was published" +
+                        "\n\tsince the previous run, the cached entries are used instead of calling the server." +
+                        "\n\tDefault {no cache}");
+            }
+            String debugString()
+            {
+                return "cacheDir:(--cache-dir)=" + ShowPackageConfiguration.cacheDirectory;
+            }
+            String value(){
+                return " path";
             }
         },
         showMembershipOption("--show-membership") {
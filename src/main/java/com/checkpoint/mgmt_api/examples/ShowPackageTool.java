@@ -19,14 +19,23 @@ package com.checkpoint.mgmt_api.examples;
 
 import com.checkpoint.mgmt_api.client.*;
 import com.checkpoint.mgmt_api.objects.*;
+import com.checkpoint.mgmt_api.utils.AdaptiveLimit;
+import com.checkpoint.mgmt_api.utils.ArchiveSink;
+import com.checkpoint.mgmt_api.utils.CompactJsonObject;
+import com.checkpoint.mgmt_api.utils.ExportCache;
+import com.checkpoint.mgmt_api.utils.JsonArrayReader;
+import com.checkpoint.mgmt_api.utils.JsonStreamWriter;
+import com.checkpoint.mgmt_api.utils.OrderedTaskPipeline;
+import com.checkpoint.mgmt_api.utils.SearchIndex;
 import com.checkpoint.mgmt_api.utils.TarGZUtils;
+import com.checkpoint.mgmt_api.utils.UidDictionary;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 
-import java.io.FileNotFoundException;
-import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.io.UnsupportedEncodingException;
+import org.json.simple.parser.ParseException;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.net.InetAddress;
 import java.net.NetworkInterface;
 import java.net.SocketException;
@@ -51,10 +60,13 @@ public class ShowPackageTool {
 
     private static ShowPackageConfiguration configuration = ShowPackageConfiguration.INSTANCE;
     private static ApiClient client;
-    private static ApiLoginResponse loginResponse;
-    private static JSONObject allTypes = null;
+    //The domains which are logged in (they are logged out when the tool exits)
+    private static final List<DomainExportContext> loggedInDomains = new ArrayList<>();
+    //True if several domains are exported, in that case an error in a domain stops only the export of that domain
+    private static boolean multiDomainExport = false;
 
-    private static final int NUMBER_OF_EXECUTORS = 2;
+    // Number of pages (per fetch thread) that are fetched ahead of the page which is currently written
+    private static final int PAGES_AHEAD_PER_THREAD = 2;
 
     private static final String TYPE      = "type";
     private static final String UNDEFINED = "undefined";
@@ -68,6 +80,15 @@ public class ShowPackageTool {
     private static final String[] OBJECT_FIELDS_CONTAINING_NESTED_OBJECTS = {"except", "include", "location"};
     private static final String[] COLLECTION_FIELDS_CONTAINING_NESTED_OBJECTS = {"members", "networks"};
 
+    // The fields which are kept in memory once a page is received, the rules and the objects are kept serialized
+    // (see compactPage)
+    private static final String[] RULE_FIELDS_KEPT_IN_MEMORY   = {"uid", "type", "name", "inline-layer"};
+    private static final String[] OBJECT_FIELDS_KEPT_IN_MEMORY = {"uid", "type", "name", "domain"};
+
+    // Polling of asynchronous tasks (e.g. show-changes)
+    private static final long TASK_POLL_MILLIS    = 2000;
+    private static final long TASK_TIMEOUT_MILLIS = 30 * 60 * 1000;
+
     private enum RulebaseType {
 
         ACCESS ("access"),
@@ -135,59 +156,288 @@ public class ShowPackageTool {
         }
         configuration.getLogger().debug("Login As root: " + loginAsRoot);
 
+        if (configuration.isMultiDomainExport()) {
+            exportDomains(loginAsRoot);
+        }
+        else {
+            DomainExportContext domain = new DomainExportContext(configuration.getDomain(), "",
+                    configuration.getDirectoryPath() + System.getProperty("file.separator"));
+            exportDomain(domain, loginAsRoot);
+        }
+
+        /*Create tar file, free the handlers and deletes temps files */
+        logoutReportAndExit("", MessageType.EXIT_WITHOUT_MESSAGE);
+    }
+
+    /**
+     * This function exports the packages of a given domain: it logs in to the domain, collects the gateways and the
+     * packages of the domain, writes the html pages into the folder of the domain and logs out.
+     *
+     * @param domain the export context of the domain
+     * @param loginAsRoot True if the login is as root
+     */
+    private static void exportDomain(DomainExportContext domain, boolean loginAsRoot)
+    {
         /*Login to the Check Point Management server*/
+        login(domain, loginAsRoot);
+        try {
+            writeTheVersionsToTheLogger(domain.getLoginResponse());
+
+            configuration.getLogger().debug("Chosen server IP: " + domain.getLoginResponse().getServerIP());
+            configuration.getLogger().debug("Login response: " + domain.getLoginResponse().getPayload());
+
+            handlePublishedSession(domain);
+
+            openExportCache(domain);
+
+            prepareIncrementalExport(domain);
+
+            /*Update the index page data*/
+            domain.getIndex().setDomain(domain.getName());
+
+            /*Show all gateways and servers*/
+            collectGatewaysInUseAndInstalledPolicies(domain);
+
+            JSONArray objectsCollection = showVpnCommunities(domain);
+
+            /*Prepare the packages for show*/
+            showPackages(domain, objectsCollection);
+
+            /*Build the index page*/
+            buildIndexHtmlPage(domain);
+
+            saveExportCache(domain);
+        }
+        finally {
+            domain.clearNamesPool();
+            logout(domain);
+        }
+    }
+
+    /**
+     * This function exports several domains of a Multi-Domain Server (--all-domains or --domains).
+     * Every domain is exported into its own folder with its own login, and up to --parallel-domains domains are
+     * exported at the same time. An error in a domain stops only the export of that domain.
+     * The main index page links to the index page of every domain.
+     *
+     * @param loginAsRoot True if the login is as root
+     */
+    private static void exportDomains(final boolean loginAsRoot)
+    {
+        List<String> domainNames = configuration.isAllDomains() ? getAllDomains(loginAsRoot) : configuration.getDomainNames();
+        if (domainNames.isEmpty()) {
+            logoutReportAndExit("No domains found on the server", MessageType.WARNING);
+        }
+        multiDomainExport = true;
+
+        final String separator = System.getProperty("file.separator");
+        List<DomainExportContext> domains = new ArrayList<>();
+        Set<String> folderNames = new HashSet<>();
+        for (String domainName : domainNames) {
+            String folderName = getDomainFolderName(domainName, folderNames);
+            File folder = new File(configuration.getDirectoryPath() + separator + folderName);
+            if (!folder.mkdir()) {
+                logoutReportAndExit("Failed to create output directory '" + folder.getPath() + "'", MessageType.SEVERE);
+            }
+            domains.add(new DomainExportContext(domainName, folderName, folder.getPath() + separator));
+        }
+
+        int parallelDomains = Math.min(configuration.getParallelDomains(), domains.size());
+        configuration.getLogger().info("Exporting " + domains.size() + " domains, " + parallelDomains + " in parallel");
+
+        JSONArray domainsInfo = new JSONArray();
+        ExecutorService domainExecutor = configuration.createDomainExecutor(parallelDomains);
+        try {
+            List<Future<Void>> exports = new ArrayList<>();
+            for (final DomainExportContext domain : domains) {
+                exports.add(domainExecutor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call()
+                    {
+                        configuration.getLogger().info("Starting to export domain '" + domain.getName() + "'");
+                        exportDomain(domain, loginAsRoot);
+                        configuration.getLogger().info("Done exporting domain '" + domain.getName() + "'");
+                        return null;
+                    }
+                }));
+            }
+
+            for (int i = 0; i < domains.size(); i++) {
+                DomainExportContext domain = domains.get(i);
+                JSONObject domainInfo = new JSONObject();
+                domainInfo.put("name", domain.getName());
+                domainInfo.put("folder", domain.getFolderName());
+                try {
+                    exports.get(i).get();
+                    domainInfo.put("status", "exported");
+                }
+                catch (ExecutionException e) {
+                    if (e.getCause() instanceof DomainExportException) {
+                        configuration.getLogger().info("The export of domain '" + domain.getName() + "' was stopped");
+                    }
+                    else {
+                        handleException(e, "Error: failed while exporting domain: '" + domain.getName() + "'");
+                    }
+                    domainInfo.put("status", "failed");
+                    domainInfo.put("message", e.getCause() != null ? e.getCause().getMessage() : e.getMessage());
+                }
+                JSONArray packageNames = new JSONArray();
+                for (PolicyPackage policyPackage : domain.getIndex().getPolicyPackages()) {
+                    packageNames.add(policyPackage.getPackageName());
+                }
+                domainInfo.put("policyPackages", packageNames);
+                domainsInfo.add(domainInfo);
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            handleException(e, "Interrupted while exporting the domains");
+        }
+        finally {
+            domainExecutor.shutdownNow();
+        }
+
+        buildDomainsIndexHtmlPage(domainsInfo);
+    }
+
+    /**
+     * This function returns the names of all the domains of the Multi-Domain Server.
+     * The domains are listed by a login to the server itself (without a domain), which is logged out at the end.
+     *
+     * @param loginAsRoot True if the login is as root
+     *
+     * @return the names of the domains
+     */
+    private static List<String> getAllDomains(boolean loginAsRoot)
+    {
+        List<String> domainNames = new ArrayList<>();
+        DomainExportContext server = new DomainExportContext("", "", configuration.getDirectoryPath());
+        login(server, loginAsRoot);
+
+        ApiResponse res = null;
+        try {
+            configuration.getLogger().debug("Run command: 'show-domains' with details level 'standard'");
+            res = client.apiQuery(server.getLoginResponse(), "show-domains", "objects", "{\"details-level\" : \"standard\"}");
+        }
+        catch (ApiClientException e) {
+            logoutReportAndExit("Failed to run show-domains command. " + e.getMessage(), MessageType.SEVERE);
+        }
+        if (res == null || !res.isSuccess()) {
+            logoutReportAndExit("Failed to run show-domains command. " + errorResponseToString(res), MessageType.SEVERE);
+        }
+        else if (res.getPayload().get("objects") instanceof JSONArray) {
+            for (Object domainObject : (JSONArray) res.getPayload().get("objects")) {
+                domainNames.add(((JSONObject) domainObject).get("name").toString());
+            }
+        }
+        logout(server);
+
+        configuration.getLogger().info("Domains which were found on the server: " + domainNames.toString());
+        return domainNames;
+    }
+
+    /**
+     * This function returns the name of the folder of a given domain: the characters which can't appear in a file
+     * name are replaced, and a number is added in case another domain has the same folder name.
+     *
+     * @param domainName the domain name
+     * @param folderNames the folder names which are already used (the function adds the new one)
+     *
+     * @return the folder name
+     */
+    private static String getDomainFolderName(String domainName, Set<String> folderNames)
+    {
+        String folderName = domainName.replaceAll("[^A-Za-z0-9._ -]", "_");
+        if (folderName.isEmpty() || folderName.startsWith(".")) {
+            folderName = "domain" + folderName;
+        }
+        String uniqueFolderName = folderName;
+        for (int i = 2; !folderNames.add(uniqueFolderName.toLowerCase()); i++) {
+            uniqueFolderName = folderName + "-" + i;
+        }
+        return uniqueFolderName;
+    }
+
+    /**
+     * This function logs in to a given domain.
+     * In case of an error the export of the domain is stopped.
+     *
+     * @param domain the export context of the domain
+     * @param loginAsRoot True if the login is as root
+     */
+    private static void login(DomainExportContext domain, boolean loginAsRoot)
+    {
+        ApiLoginResponse loginResponse = null;
         if (!loginAsRoot) {
             try {
-                loginResponse = client.login(configuration.getServer(), configuration.createPayloadForLogin(false));
+                loginResponse = client.login(configuration.getServer(),
+                                             configuration.createPayloadForLogin(false, domain.getName()));
             }
             catch (ApiClientException e) {
-                logoutReportAndExit("An error occurred while logging in to the server. Exception: "+ e.getMessage(), MessageType.SEVERE);
+                abortDomain("An error occurred while logging in to the server. Exception: "+ e.getMessage(), MessageType.SEVERE);
             }
         }
         else {
             //Login as root
             try {
-                loginResponse = client.loginAsRoot(configuration.createPayloadForLogin(true));
+                loginResponse = client.loginAsRoot(configuration.createPayloadForLogin(true, domain.getName()));
             }catch (ApiClientRunTimeException e){
-                logoutReportAndExit("An error occurred while logging in to the server "+ e.getMessage(), MessageType.SEVERE);
+                abortDomain("An error occurred while logging in to the server "+ e.getMessage(), MessageType.SEVERE);
             }
         }
         if(loginResponse == null){
-            logoutReportAndExit("An error occurred while logging in to the server", MessageType.SEVERE);
+            abortDomain("An error occurred while logging in to the server", MessageType.SEVERE);
         }
         else if(!loginResponse.isSuccess()){
-            logoutReportAndExit("An error occurred while logging in to the server. "
+            abortDomain("An error occurred while logging in to the server. "
                                   + errorResponseToString(loginResponse) , MessageType.SEVERE);
         }
 
-        writeTheVersionsToTheLogger();
-
-        configuration.getLogger().debug("Chosen server IP: " + loginResponse.getServerIP());
-        configuration.getLogger().debug("Login response: " + loginResponse.getPayload());
-
-        IndexView index = new IndexView();
-
-        handlePublishedSession(index);
-
-         /*Update the index page data*/
-        index.setDomain(configuration.getDomain());
-
-        /*Show all gateways and servers*/
-        collectGatewaysInUseAndInstalledPolicies();
-
-        JSONArray objectsCollection = showVpnCommunities();
-
-        /*Prepare the packages for show*/
-        showPackages(index, objectsCollection);
+        domain.setLoginResponse(loginResponse);
+        synchronized (loggedInDomains) {
+            loggedInDomains.add(domain);
+        }
+    }
 
-        /*Build the index page and create the tar file*/
-        buildIndexHtmlPage(index);
+    /**
+     * This function logs out from a given domain (if it's logged in).
+     *
+     * @param domain the export context of the domain
+     */
+    private static void logout(DomainExportContext domain)
+    {
+        synchronized (loggedInDomains) {
+            if (!loggedInDomains.remove(domain)) {
+                return;
+            }
+        }
+        try {
+            client.exit(domain.getLoginResponse());
+        }
+        catch (ApiClientException e) {
+            configuration.getLogger().severe("Failed to login/logout. Exception: " + e.getMessage());
+        }
+    }
 
-        /*Create tar file, free the handlers and deletes temps files */
-        logoutReportAndExit("", MessageType.EXIT_WITHOUT_MESSAGE);
+    /**
+     * This function stops the export of the current domain because of an error.
+     * In case of a multi-domain export only the export of the domain is stopped (by a {@link DomainExportException}),
+     * otherwise the tool exits.
+     *
+     * @param message to be printed and written to the log file.
+     * @param messageType the type of the message (SEVERE/WARNING/INFO/EXIT WITHOUT MESSAGE)
+     */
+    private static void abortDomain(String message, MessageType messageType)
+    {
+        if (!multiDomainExport) {
+            logoutReportAndExit(message, messageType);
+            return;
+        }
+        writeMessageToLogger(message, messageType);
+        throw new DomainExportException(message);
     }
 
-    private static void handlePublishedSession(IndexView index)
+    private static void handlePublishedSession(DomainExportContext domain)
     {
         Session session = new Session();
         JSONObject sessionPayload = new JSONObject();
@@ -195,15 +445,15 @@ public class ShowPackageTool {
 
         //get last published session
         try {
-            sessionRes = client.apiCall(loginResponse, "show-last-published-session", "{}");
+            sessionRes = client.apiCall(domain.getLoginResponse(), "show-last-published-session", "{}");
         }
         catch (ApiClientException e) {
-            logoutReportAndExit("Failed to show last published session. Exception: "+ e.getMessage(), MessageType.SEVERE);
+            abortDomain("Failed to show last published session. Exception: "+ e.getMessage(), MessageType.SEVERE);
         }
         if (sessionRes == null || !sessionRes.isSuccess()) {
             //print error: if client asked to switch session in management with no published sessions
             if (configuration.getPublishedSessionUid() != null) {
-                logoutReportAndExit(errorResponseToString(
+                abortDomain(errorResponseToString(
                         sessionRes) + " - could not switch to the required session: " + configuration.getPublishedSessionUid(),
                                     MessageType.SEVERE);
             }
@@ -233,15 +483,15 @@ public class ShowPackageTool {
             if (!session.getLastPublishedSession()) {
                 sessionPayload.put("uid", session.getUid());
                 try {
-                    sessionRes = client.apiCall(loginResponse, "show-session", sessionPayload);
+                    sessionRes = client.apiCall(domain.getLoginResponse(), "show-session", sessionPayload);
                 }
                 catch (ApiClientException e) {
-                    logoutReportAndExit(
+                    abortDomain(
                             "Failed to show the session" + session.getUid() + ". Exception: " + e.getMessage(),
                             MessageType.SEVERE);
                 }
                 if (sessionRes == null || !sessionRes.isSuccess()) {
-                    logoutReportAndExit(
+                    abortDomain(
                             "Failed to show the session" + session.getUid() + ". Exception: " + errorResponseToString(
                                     sessionRes), MessageType.SEVERE);
                 }
@@ -259,7 +509,7 @@ public class ShowPackageTool {
             if(publishTime != null)
                 session.setPublishTime(((HashMap)publishTime).get("iso-8601").toString());
             else
-                logoutReportAndExit("Input published session is not published - ", MessageType.SEVERE);
+                abortDomain("Input published session is not published - ", MessageType.SEVERE);
 
             //Switching to published session
             ApiResponse switchSessionRes = null;
@@ -267,22 +517,476 @@ public class ShowPackageTool {
                 sessionPayload.clear();
                 sessionPayload.put("uid", session.getUid());
                 try {
-                    switchSessionRes = client.apiCall(loginResponse, "switch-session", sessionPayload);
+                    switchSessionRes = client.apiCall(domain.getLoginResponse(), "switch-session", sessionPayload);
                 }
                 catch (ApiClientException e) {
-                    logoutReportAndExit(
+                    abortDomain(
                             "An error occurred while switching to the input published session. Exception: " + e.getMessage(),
                             MessageType.SEVERE);
                 }
                 if (switchSessionRes == null || !switchSessionRes.isSuccess()) {
-                    logoutReportAndExit(
+                    abortDomain(
                             "Failed to switch published session uid " + configuration.getPublishedSessionUid() + ". " + errorResponseToString(
                                     switchSessionRes), MessageType.SEVERE);
                 }
             }
-            index.setSession(session);
+            domain.getIndex().setSession(session);
+        }
+
+    }
+
+    /**
+     * This function opens the persistent cache (if the user asked for it).
+     * The cache is tagged with the published session, so its entries are used only as long as no session was
+     * published since the run which created them. The cached objects are loaded into the object store.
+     * In case of a multi-domain export every domain has its own sub directory in the cache directory.
+     *
+     * @param domain the export context of the domain, holding the published session
+     */
+    private static void openExportCache(DomainExportContext domain)
+    {
+        if (configuration.getCacheDirectory() == null) {
+            return;
+        }
+
+        Session session = domain.getIndex().getSession();
+        if (session == null) {
+            configuration.getLogger().info("There is no published session, the cache isn't used");
+            return;
+        }
+
+        JSONObject tag = new JSONObject();
+        tag.put("server", String.valueOf(configuration.getServer()));
+        tag.put("domain", domain.getName());
+        tag.put("session-uid", session.getUid());
+        tag.put("publish-time", session.getPublishTime());
+        tag.put("api-version", String.valueOf(domain.getLoginResponse().getApiVersion()));
+        tag.put("tool-version", configuration.getToolVersion());
+        tag.put("show-membership", String.valueOf(configuration.getShowMembership()));
+        tag.put("dereference-group-members", String.valueOf(configuration.getDereferenceGroupMembers()));
+
+        String cacheDirectory = configuration.getCacheDirectory();
+        if (multiDomainExport) {
+            cacheDirectory = new File(cacheDirectory, domain.getFolderName()).getPath();
+        }
+        ExportCache cache = new ExportCache(cacheDirectory);
+        try {
+            if (cache.open(tag)) {
+                JSONArray objects = cache.readObjects();
+                for (Object object : objects) {
+                    JSONObject cachedObject = (JSONObject) object;
+                    if (cachedObject.get("uid") != null) {
+                        domain.getObjectStore().put(cachedObject.get("uid").toString(), compactObject(cachedObject));
+                    }
+                }
+                configuration.getLogger().info("Using the cache '" + cache.getPath() + "' of session '"
+                        + session.getUid() + "' (" + objects.size() + " objects)");
+            }
+            else {
+                configuration.getLogger().info("The cache '" + cache.getPath() + "' doesn't match session '"
+                        + session.getUid() + "', it is filled again");
+            }
+        }
+        catch (IOException e) {
+            handleException(e, "Failed to open the cache '" + cache.getPath() + "', the cache isn't used");
+            return;
         }
+        domain.setExportCache(cache);
+    }
 
+    /**
+     * This function writes the objects of the current run into the persistent cache (if it is used).
+     *
+     * @param domain the export context of the domain
+     */
+    private static void saveExportCache(DomainExportContext domain)
+    {
+        if (domain.getExportCache() == null) {
+            return;
+        }
+        try {
+            domain.getExportCache().writeObjects(domain.getObjectStore().values());
+        }
+        catch (IOException e) {
+            handleException(e, "Failed to write the objects into the cache '" + domain.getExportCache().getPath() + "'");
+        }
+    }
+
+    /**
+     * This function prepares an incremental export (if the user asked for it).
+     * The changes since the given session are retrieved from the server, the previous export is extracted and its
+     * objects (except for the changed ones) are loaded into the object store.
+     * In case of an error a full export is done.
+     *
+     * @param domain the export context of the domain, holding the published session
+     */
+    private static void prepareIncrementalExport(DomainExportContext domain)
+    {
+        String sinceSessionUid = configuration.getSinceSessionUid();
+        if (sinceSessionUid == null) {
+            return;
+        }
+
+        Session session = domain.getIndex().getSession();
+        if (session == null) {
+            configuration.getLogger().warning("There is no published session, running a full export");
+            return;
+        }
+
+        SessionChanges changes = new SessionChanges(sinceSessionUid);
+        if (!sinceSessionUid.equals(session.getUid()) && !retrieveSessionChanges(domain, changes, session.getUid())) {
+            configuration.getLogger().warning("Failed to retrieve the changes since session '" + sinceSessionUid
+                    + "', running a full export");
+            return;
+        }
+
+        try {
+            TarGZUtils.extractArchive(configuration.getPreviousExportPath(), configuration.getPreviousExportFolderPath());
+        }
+        catch (IOException e) {
+            handleException(e, "Failed to extract the previous export '" + configuration.getPreviousExportPath()
+                    + "', running a full export");
+            return;
+        }
+
+        int previousObjects = loadPreviousObjects(domain, changes);
+
+        configuration.getLogger().info("Incremental export since session '" + sinceSessionUid + "': "
+                + changes.getChangedUids().size() + " changed object(s), " + previousObjects
+                + " object(s) loaded from the previous export");
+        domain.setSessionChanges(changes);
+    }
+
+    /**
+     * This function retrieves the changes between two published sessions.
+     *
+     * @param domain the export context of the domain
+     * @param changes the changes, filled by the function
+     * @param toSessionUid the uid of the newer session
+     *
+     * @return True (False in case of an error).
+     */
+    private static boolean retrieveSessionChanges(DomainExportContext domain, SessionChanges changes, String toSessionUid)
+    {
+        ApiResponse res;
+        JSONObject payload = new JSONObject();
+        payload.put("from-session", changes.getSinceSessionUid());
+        payload.put("to-session", toSessionUid);
+
+        try {
+            configuration.getLogger().debug("Run command: 'show-changes' with payload: " + payload.toJSONString());
+            res = client.apiCall(domain.getLoginResponse(), "show-changes", payload);
+            if (res != null && res.isSuccess() && res.getPayload().get("task-id") != null) {
+                res = waitForTask(domain, res.getPayload().get("task-id").toString());
+            }
+        }
+        catch (ApiClientException | InterruptedException e) {
+            handleException(e, "Failed to run show-changes");
+            return false;
+        }
+
+        if (res == null || !res.isSuccess()) {
+            configuration.getLogger().severe("Failed to run show-changes. " + errorResponseToString(res));
+            return false;
+        }
+
+        changes.addChanges(res.getPayload());
+        return true;
+    }
+
+    /**
+     * This function waits for an asynchronous task to finish.
+     *
+     * @param domain the export context of the domain
+     * @param taskId the task id
+     *
+     * @return the response of show-task with the details of the task, or null if the task didn't succeed
+     */
+    private static ApiResponse waitForTask(DomainExportContext domain, String taskId) throws ApiClientException, InterruptedException
+    {
+        JSONObject payload = new JSONObject();
+        payload.put("task-id", taskId);
+        payload.put("details-level", "full");
+
+        final long deadline = System.currentTimeMillis() + TASK_TIMEOUT_MILLIS;
+        while (true) {
+            ApiResponse res = client.apiCall(domain.getLoginResponse(), "show-task", payload);
+            if (res == null || !res.isSuccess()) {
+                return res;
+            }
+
+            String status = "succeeded";
+            JSONArray tasks = (JSONArray) res.getPayload().get("tasks");
+            if (tasks != null) {
+                for (Object task : tasks) {
+                    Object taskStatus = ((JSONObject) task).get("status");
+                    if (taskStatus != null && !"succeeded".equals(taskStatus.toString())) {
+                        status = taskStatus.toString();
+                    }
+                }
+            }
+
+            if ("succeeded".equals(status)) {
+                return res;
+            }
+            if (!"in progress".equals(status) || System.currentTimeMillis() > deadline) {
+                configuration.getLogger().severe("Task '" + taskId + "' didn't succeed, status: " + status);
+                return null;
+            }
+            Thread.sleep(TASK_POLL_MILLIS);
+        }
+    }
+
+    /**
+     * This function loads the objects of the previous export into the object store, except for the changed objects.
+     *
+     * @param domain the export context of the domain
+     * @param changes the changes since the previous export
+     *
+     * @return the number of loaded objects
+     */
+    private static int loadPreviousObjects(final DomainExportContext domain, final SessionChanges changes)
+    {
+        final int[] loadedObjects = {0};
+        File[] previousFiles = new File(configuration.getPreviousExportFolderPath()).listFiles();
+        if (previousFiles == null) {
+            return 0;
+        }
+
+        for (File previousFile : previousFiles) {
+            String fileName = previousFile.getName();
+            if (!fileName.endsWith("_objects.json") || fileName.endsWith("_gateway_objects.json")) {
+                continue;
+            }
+            //The objects are parsed one after the other, and every object is kept compact in the store
+            try (Reader reader = new BufferedReader(new InputStreamReader(new FileInputStream(previousFile),
+                                                                          StandardCharsets.UTF_8))) {
+                JsonArrayReader.readElements(reader, new JsonArrayReader.ElementHandler() {
+                    @Override
+                    public void handle(Object object)
+                    {
+                        if (!(object instanceof JSONObject)) {
+                            return;
+                        }
+                        Object uid = ((JSONObject) object).get("uid");
+                        if (uid == null || changes.getChangedUids().contains(uid.toString())
+                                || domain.getObjectStore().containsKey(uid.toString())) {
+                            return;
+                        }
+                        domain.getObjectStore().put(uid.toString(), compactObject((JSONObject) object));
+                        loadedObjects[0]++;
+                    }
+                });
+            }
+            catch (IOException | ParseException e) {
+                handleException(e, "Failed to read the objects of the previous export from '" + fileName + "'");
+            }
+        }
+        return loadedObjects[0];
+    }
+
+    /**
+     * This function copies the files of a given rulebase from the previous export, in case of an incremental export
+     * where neither the layer nor the objects that its rules use were changed since the previous export
+     * (and the hit counts aren't shown).
+     * The objects of the rulebase are added to the package, and its inline layers are handled as well.
+     *
+     * @param layer the layer of the rulebase
+     * @param context the export context of the package that the layer belongs to
+     * @param rulebaseType {@link RulebaseType} the rulebase's type
+     *
+     * @return True if the files were copied, False if the rulebase has to be exported
+     */
+    private static boolean carryOverRulebase(Layer layer, PackageExportContext context, RulebaseType rulebaseType)
+    {
+        //The hit counts are changed without publishing a session, so the previous files have stale hit counts
+        if (configuration.showRulesHitCounts()) {
+            return false;
+        }
+
+        SessionChanges sessionChanges = context.getDomain().getSessionChanges();
+        if (sessionChanges == null || sessionChanges.isLayerChanged(layer.getUid())
+                || (rulebaseType == RulebaseType.NAT && sessionChanges.isNatChanged())) {
+            return false;
+        }
+
+        String layerName = getRulebaseLayerName(layer.getName(), context.getPackageName(), rulebaseType);
+        String fileName = configuration.getHtmlUtils().getRulebaseFileName(layerName, layer.getDomain());
+        File previousHtml = new File(configuration.getPreviousExportFolderPath(), fileName + ".html");
+        File previousJson = new File(configuration.getPreviousExportFolderPath(), fileName + ".json");
+        if (!previousHtml.isFile() || !previousJson.isFile() || !isReusableRulebaseFile(previousHtml)) {
+            return false;
+        }
+
+        //The rules are read one after the other, only their uids are kept (and their positions, for the search index)
+        final Set<String> referencedUids = new LinkedHashSet<>();
+        final Set<String> previousInlineLayerUids = new LinkedHashSet<>();
+        final SearchIndex.LayerRules layerRules = new SearchIndex.LayerRules();
+        try (Reader reader = new BufferedReader(new InputStreamReader(new FileInputStream(previousJson),
+                                                                      StandardCharsets.UTF_8))) {
+            JsonArrayReader.readElements(reader, new JsonArrayReader.ElementHandler() {
+                @Override
+                public void handle(Object rule)
+                {
+                    UidDictionary ruleUids = new UidDictionary();
+                    UidDictionary.collectUids(rule, ruleUids);
+                    referencedUids.addAll(ruleUids.keySet());
+                    layerRules.addRule(rule, ruleUids.keySet());
+
+                    Object inlineLayerUid = rule instanceof JSONObject ? ((JSONObject) rule).get("inline-layer") : null;
+                    if (inlineLayerUid != null) {
+                        previousInlineLayerUids.add(inlineLayerUid.toString());
+                    }
+                }
+            });
+        }
+        catch (IOException | ParseException e) {
+            return false;
+        }
+
+        if (!Collections.disjoint(referencedUids, sessionChanges.getChangedUids())) {
+            return false;
+        }
+
+        try {
+            configuration.getHtmlUtils().copyRulebaseFiles(configuration.getPreviousExportFolderPath(),
+                                                           context.getDomain().getOutputFolderPath(),
+                                                           layerName, layer.getDomain());
+        }
+        catch (IOException e) {
+            handleException(e, "Failed to copy the files of layer '" + layer.getName() + "' from the previous export");
+            return false;
+        }
+        configuration.getLogger().info("Layer '" + layer.getName() + "' wasn't changed since session '"
+                + sessionChanges.getSinceSessionUid() + "', copied from the previous export");
+
+        //The copied page has the same rules, they are added to the search index of the package
+        if (context.getSearchIndex() != null) {
+            context.getSearchIndex().addLayer(fileName, layerName, layerRules);
+        }
+
+        // Rule uids and layer uids aren't in the store, only the objects are added to the package
+        for (String uid : referencedUids) {
+            JSONObject storedObject = context.getDomain().getObjectStore().get(uid);
+            if (storedObject != null) {
+                addObjectInformationIntoCollections(context, storedObject);
+            }
+        }
+
+        Set<String> inlineLayerUids = new LinkedHashSet<>();
+        for (String inlineLayerUid : previousInlineLayerUids) {
+            if (!context.getDomain().isKnownInlineLayer(inlineLayerUid)) {
+                inlineLayerUids.add(inlineLayerUid);
+            }
+        }
+        for (Layer inlineLayer : resolveInlineLayers(context.getDomain(), inlineLayerUids).values()) {
+            scheduleInlineLayer(inlineLayer, context);
+        }
+
+        return true;
+    }
+
+    /**
+     * This function checks whether a given rulebase html file of a previous export can be reused: it doesn't show an
+     * error and it has the layout of the current export (e.g. it loads the shared uid_to_name if the current export does).
+     *
+     * @param htmlFile the html file
+     *
+     * @return True if the file can be reused (False if it shows an error, has another layout or can't be read)
+     */
+    private static boolean isReusableRulebaseFile(File htmlFile)
+    {
+        String expectedLayout = "var rulebase_layout = " + configuration.getHtmlUtils().getRulebaseLayout() + ";";
+        boolean sameLayout = false;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(htmlFile),
+                                                                              StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                //A page without a layout was written by an older version
+                if (line.contains("var rulebase_layout")) {
+                    sameLayout = line.trim().equals(expectedLayout);
+                }
+                if (line.contains("var failed_creating_layer")) {
+                    return sameLayout && !line.contains("true");
+                }
+                if (line.contains("var data")) {
+                    break;
+                }
+            }
+        }
+        catch (IOException e) {
+            return false;
+        }
+        return false;
+    }
+
+    /**
+     * This function returns the cached response of a given call.
+     *
+     * @param domain the export context of the domain
+     * @param command the command of the call
+     * @param payload the payload of the call
+     *
+     * @return the cached response, or null if the response isn't cached (or the cache isn't used)
+     */
+    private static ApiResponse getCachedResponse(DomainExportContext domain, String command, JSONObject payload)
+    {
+        if (!isCacheable(domain, payload)) {
+            return null;
+        }
+        JSONObject cachedPayload = domain.getExportCache().getResponse(command, payload);
+
+        return cachedPayload == null ? null : new ApiResponse(200, cachedPayload);
+    }
+
+    /**
+     * This function writes a successful response of a given call into the cache (if it is used).
+     *
+     * @param domain the export context of the domain
+     * @param command the command of the call
+     * @param payload the payload of the call
+     * @param res the response
+     */
+    private static void cacheResponse(DomainExportContext domain, String command, JSONObject payload, ApiResponse res)
+    {
+        if (res == null || !res.isSuccess() || !isCacheable(domain, payload)) {
+            return;
+        }
+        try {
+            domain.getExportCache().putResponse(command, payload, res.getPayload());
+        }
+        catch (IOException e) {
+            configuration.getLogger().warning("Failed to write the response of command " + command
+                    + " into the cache. Exception: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Hit counts change without publishing a session, so the calls which show them are never cached.
+     */
+    private static boolean isCacheable(DomainExportContext domain, JSONObject payload)
+    {
+        return domain.getExportCache() != null && !payload.containsKey("show-hits");
+    }
+
+    /**
+     * This function runs a given call, unless its response is already in the cache.
+     *
+     * @param domain the export context of the domain
+     * @param command the command of the call
+     * @param payload the payload of the call
+     *
+     * @return the response
+     * @throws ApiClientException if the call failed
+     */
+    private static ApiResponse cachedApiCall(DomainExportContext domain, String command, JSONObject payload) throws ApiClientException
+    {
+        ApiResponse res = getCachedResponse(domain, command, payload);
+        if (res == null) {
+            res = client.apiCall(domain.getLoginResponse(), command, payload);
+            cacheResponse(domain, command, payload, res);
+        }
+        return res;
     }
 
     /**
@@ -325,8 +1029,10 @@ public class ShowPackageTool {
 
     /**
      * This function write the Api version and the tool version into the log file
+     *
+     * @param loginResponse the response of the login
      */
-    private static void writeTheVersionsToTheLogger() {
+    private static void writeTheVersionsToTheLogger(ApiLoginResponse loginResponse) {
 
         /*Set web Api version and look for the api-server-version, if it does not exist, that means we are in the
          webApiVersion v1.0 (Hero GA).*/
@@ -346,20 +1052,22 @@ public class ShowPackageTool {
 
     /**
      * This function collects all the gateways and servers that exist on the management server
+     *
+     * @param domain the export context of the domain
      */
-    private static void collectGatewaysInUseAndInstalledPolicies()
+    private static void collectGatewaysInUseAndInstalledPolicies(DomainExportContext domain)
     {
 
         ApiResponse res = null;
         try {
             configuration.getLogger().debug("Run command: 'show-gateways-and-servers' with details level 'full'");
-            res = client.apiQuery(loginResponse, "show-gateways-and-servers", "objects", "{\"details-level\" : \"full\"}");
+            res = client.apiQuery(domain.getLoginResponse(), "show-gateways-and-servers", "objects", "{\"details-level\" : \"full\"}");
         }
         catch (ApiClientException e) {
-            logoutReportAndExit("Failed to run gateways-and-servers command." + e.getMessage(), MessageType.SEVERE);
+            abortDomain("Failed to run gateways-and-servers command." + e.getMessage(), MessageType.SEVERE);
         }
         if (res == null || !res.isSuccess()) {
-            logoutReportAndExit("Failed to run gateways-and-servers command. " + errorResponseToString(res), MessageType.SEVERE);
+            abortDomain("Failed to run gateways-and-servers command. " + errorResponseToString(res), MessageType.SEVERE);
         }
 
         if (!res.getPayload().containsKey("objects")) {
@@ -379,12 +1087,12 @@ public class ShowPackageTool {
             if (gatewayOrServerJson.containsKey("policy")) {
                 JSONObject policy = (JSONObject) gatewayOrServerJson.get("policy");
                 if (!policy.isEmpty()) {
-                    GatewayAndServer gateway = buildNewGatewayOrServer(gatewayOrServerJson);
-                    configuration.setGatewaysWithPolicy(gateway);
+                    GatewayAndServer gateway = buildNewGatewayOrServer(domain, gatewayOrServerJson);
+                    domain.getGatewaysWithPolicy().add(gateway);
                 }
             }
         }
-        int numberOfObjectsWithPolicies = configuration.getGatewaysWithPolicy().size();
+        int numberOfObjectsWithPolicies = domain.getGatewaysWithPolicy().size();
         configuration.getLogger().info("Found " + numberOfObjectsWithPolicies +
                 " gateways that have a policy installed on them");
 
@@ -393,9 +1101,11 @@ public class ShowPackageTool {
     /**
      * This function collects all the vpn communities which exist on the management server
      *
+     * @param domain the export context of the domain
+     *
      * @return the object collection
      */
-    private static JSONArray showVpnCommunities() {
+    private static JSONArray showVpnCommunities(DomainExportContext domain) {
 
         ApiResponse res;
         JSONArray objectsInUse = new JSONArray();
@@ -406,7 +1116,7 @@ public class ShowPackageTool {
         for (String command : commands) {
             try {
                 configuration.getLogger().debug("Run command: '" + command + "' with details level 'standard'");
-                res = client.apiQuery(loginResponse,command, "objects", "{\"details-level\" : \"standard\"}");
+                res = client.apiQuery(domain.getLoginResponse(),command, "objects", "{\"details-level\" : \"standard\"}");
             }
             catch (ApiClientException e) {
                 configuration.getLogger().warning("Failed to execute command: " +command + ". Exception: " + e.getMessage());
@@ -430,10 +1140,10 @@ public class ShowPackageTool {
     /**
      *  This function selects which package to show, and collects all the relevant information.
      *
-     * @param index the index object
+     * @param domain the export context of the domain, holding the index object
      * @param objectsInUse the objects that the packages contain
      */
-    private static void showPackages(IndexView index, JSONArray objectsInUse){
+    private static void showPackages(DomainExportContext domain, JSONArray objectsInUse){
 
         PolicyPackage policy;
 
@@ -441,7 +1151,7 @@ public class ShowPackageTool {
                 configuration.showPackagesList()) {
 
             //Show all the packages that exist on the server
-            List<String> allExistsPackages = getAllPackages();
+            List<String> allExistsPackages = getAllPackages(domain);
 
             //Checks if the flag -v (show the packages) is set to True,
             if(configuration.showPackagesList()){
@@ -449,16 +1159,16 @@ public class ShowPackageTool {
             }
 
             if ( allExistsPackages.isEmpty()) {
-                logoutReportAndExit("No packages found on the server. Try to login to a user's domain", MessageType.WARNING);
+                abortDomain("No packages found on the server. Try to login to a user's domain", MessageType.WARNING);
             }
 
             configuration.getLogger().info("Packages which were found on the management: " + allExistsPackages.toString());
-            configuration.getLogger().info("Packages which were installed on gateways: " + configuration.getInstalledPackages().toString());
+            configuration.getLogger().info("Packages which were installed on gateways: " + domain.getInstalledPackages().toString());
 
             if (allExistsPackages.size() > 1) {
 
                 //Check whether there are packages which were installed on a gateway
-                if( configuration.getInstalledPackages().isEmpty() ){
+                if( domain.getInstalledPackages().isEmpty() ){
                     System.out.println("More than one package exists but neither one of them is installed on a gateway.\n" +
                             "In order to show a specific package, run with -k [package name].\n"+
                             "In order to show all the existing packages, run with -v\n");
@@ -469,20 +1179,15 @@ public class ShowPackageTool {
                 configuration.getLogger().info("More then one package exists," +
                         " show all packages that are installed on a gateway");
                 //More then one package exists, show all packages that are installed on a gateway
-                for (String packageName : configuration.getInstalledPackages()) {
-                    policy = buildPackagePolicy(packageName, objectsInUse);
-                    if (policy != null) {
-                        index.getPolicyPackages().add(policy);
-                    }
-                }
+                buildPackagePolicies(domain, domain.getInstalledPackages(), objectsInUse);
             }
             else {
                 configuration.getLogger().info("Only one package exists, show this package: '" + allExistsPackages.get(0) + "'");
                 //Only one package exists, show this package
                 String packageName = allExistsPackages.get(0);
-                policy = buildPackagePolicy(packageName, objectsInUse);
+                policy = buildPackagePolicy(domain, packageName, objectsInUse);
                 if (policy != null) {
-                    index.getPolicyPackages().add(policy);
+                    domain.getIndex().getPolicyPackages().add(policy);
                 }
             }
         }
@@ -490,33 +1195,100 @@ public class ShowPackageTool {
             configuration.getLogger().info("Show only a specific package (the one that was entered as an argument): '"
                     + configuration.getUserRequestPackage() + "'");
             //Show only a specific package (the one that was entered as an argument)
-            policy = buildPackagePolicy(configuration.getUserRequestPackage(), objectsInUse);
+            policy = buildPackagePolicy(domain, configuration.getUserRequestPackage(), objectsInUse);
             if (policy != null) {
-                index.getPolicyPackages().add(policy);
+                domain.getIndex().getPolicyPackages().add(policy);
+            }
+        }
+    }
+
+    /**
+     * This function collects information about the given packages and adds them to the index.
+     * Up to --parallel-packages packages are exported at the same time, each one with its own export context.
+     * The packages are added to the index in the given order.
+     *
+     * @param domain the export context of the domain, holding the index object
+     * @param packageNames the names of the packages
+     * @param objectsInUse the objects that the packages contain
+     */
+    private static void buildPackagePolicies(final DomainExportContext domain, List<String> packageNames,
+                                             final JSONArray objectsInUse)
+    {
+        int parallelPackages = Math.min(configuration.getParallelPackages(), packageNames.size());
+        if (parallelPackages <= 1) {
+            for (String packageName : packageNames) {
+                PolicyPackage policy = buildPackagePolicy(domain, packageName, objectsInUse);
+                if (policy != null) {
+                    domain.getIndex().getPolicyPackages().add(policy);
+                }
             }
+            return;
+        }
+
+        configuration.getLogger().info("Exporting " + packageNames.size() + " packages, " + parallelPackages
+                + " in parallel");
+
+        ExecutorService packageExecutor = configuration.createPackageExecutor(parallelPackages);
+        try {
+            List<Future<PolicyPackage>> policies = new ArrayList<>();
+            for (final String packageName : packageNames) {
+                policies.add(packageExecutor.submit(new Callable<PolicyPackage>() {
+                    @Override
+                    public PolicyPackage call()
+                    {
+                        return buildPackagePolicy(domain, packageName, objectsInUse);
+                    }
+                }));
+            }
+
+            for (int i = 0; i < policies.size(); i++) {
+                PolicyPackage policy;
+                try {
+                    policy = policies.get(i).get();
+                }
+                catch (ExecutionException e) {
+                    if (e.getCause() instanceof DomainExportException) {
+                        throw (DomainExportException) e.getCause();
+                    }
+                    handleException(e, "Error: failed while creating policy package: '" + packageNames.get(i) + "'");
+                    continue;
+                }
+                if (policy != null) {
+                    domain.getIndex().getPolicyPackages().add(policy);
+                }
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            handleException(e, "Interrupted while creating the policy packages");
+        }
+        finally {
+            packageExecutor.shutdownNow();
         }
     }
 
     /**
      *This function returns a list of all the packages that exist on the Check Point Management Server
      *
+     * @param domain the export context of the domain
+     *
      * @return List of all the packages that exists on the Check Point Management Server
      */
-    private static List<String> getAllPackages() {
+    private static List<String> getAllPackages(DomainExportContext domain) {
         List<String> packagesName = new ArrayList<>();
         ApiResponse res           = null;
 
         //Get all existing packages
         try {
             configuration.getLogger().debug("Run command: 'show-packages' with details level 'full'");
-            res = client.apiQuery(loginResponse,"show-packages","packages", "{\"details-level\" : \"full\"}");
+            res = client.apiQuery(domain.getLoginResponse(),"show-packages","packages", "{\"details-level\" : \"full\"}");
 
         }//In case of an error
         catch (ApiClientException e) {
-            logoutReportAndExit("Failed to run show-packages command. Aborting. " + e.getMessage(), MessageType.SEVERE);
+            abortDomain("Failed to run show-packages command. Aborting. " + e.getMessage(), MessageType.SEVERE);
         }
         if (res == null || !res.isSuccess()) {
-            logoutReportAndExit("Failed to run show-packages command. Aborting. " + errorResponseToString(res), MessageType.SEVERE);
+            abortDomain("Failed to run show-packages command. Aborting. " + errorResponseToString(res), MessageType.SEVERE);
         }
         else {
             //There are packages
@@ -549,32 +1321,36 @@ public class ShowPackageTool {
     /**
      * This function collects information (layers and objects) about a given package.
      *
+     * @param domain the export context of the domain that the package belongs to
      * @param packageName the package name to collect the information about.
      * @param objectsInUse the objects that were already collected
      *
      * @return {@link PolicyPackage} contains information about the package
      */
-    private static PolicyPackage buildPackagePolicy(String packageName, JSONArray objectsInUse) {
+    private static PolicyPackage buildPackagePolicy(DomainExportContext domain, String packageName, JSONArray objectsInUse) {
 
         List<Layer> accessLayers = new ArrayList<>();
         List<Layer> threatLayers = new ArrayList<>();
         Layer natLayer;
         PolicyPackage policyPackage = null;
+        PackageExportContext context = null;
         try {
+            context = configuration.openPackageContext(domain, packageName);
+
             //The vpn communities which were collected are common to all of the policy packages.
-            //Clone these objects in order to include the vpn communities in all the packages.
-            addObjectsInfoIntoCollections(objectsInUse);
+            //Add these objects to the package in order to include the vpn communities in all the packages.
+            addObjectsInfoIntoCollections(context, objectsInUse);
 
             //Fill the layer and the layer's list with information about the package's layers.
             configuration.getLogger().debug("Starting to process layers of package '" + packageName + "'");
 
-            natLayer = aggregatePackageLayers(packageName, accessLayers, threatLayers);
+            natLayer = aggregatePackageLayers(domain, packageName, accessLayers, threatLayers);
 
             if(configuration.showAccessPolicyFlag()){
                 //Handle access layer
                 configuration.getLogger().debug("Handle access layers");
                 for (Layer accessLayer : accessLayers) {
-                    showAccessRulebase(accessLayer, packageName);
+                    showAccessRulebase(accessLayer, context);
                 }
             }
 
@@ -582,7 +1358,7 @@ public class ShowPackageTool {
                 //Handle nat layer
                 if (natLayer != null) {
                     configuration.getLogger().debug("Handle nat layer");
-                    showNatRulebase(natLayer, packageName);
+                    showNatRulebase(natLayer, context);
                 }
             }
 
@@ -590,64 +1366,24 @@ public class ShowPackageTool {
                 //Handle threat layers
                 configuration.getLogger().debug("Handle threat layers");
                 for (Layer threatLayer : threatLayers) {
-                    showThreatRulebase(packageName, threatLayer);
+                    showThreatRulebase(context, threatLayer);
                 }
             }
 
-            final Queue<String> objectsQueue = configuration.getNestedObjectsToRetrieve();
-            configuration.getLogger().info("There are " + objectsQueue.size() + " nested object(s) to retrieve (with limit " + configuration.getQueryLimit() + ")");
-            while (!objectsQueue.isEmpty()) {
-
-                final Set<String> objectsToRetrieveChunk = new LinkedHashSet<>();
-                String uidFromQueue;
-                while (objectsToRetrieveChunk.size() < configuration.getQueryLimit() && (uidFromQueue = objectsQueue.poll()) != null) {
-                    objectsToRetrieveChunk.add(uidFromQueue);
-                }
-
-                JSONObject payload = new JSONObject();
-
-                payload.put("limit", configuration.getQueryLimit());
-                payload.put("details-level", "full");
-
-                addNewFlagsToControlDetailsLevel(payload);
-
-                final JSONArray objectsFilter = new JSONArray();
-                objectsFilter.add("objId");
-                objectsFilter.addAll(objectsToRetrieveChunk);
-
-                payload.put("in", objectsFilter);
-
-                try {
-                    ApiResponse res = client.apiCall(loginResponse, "show-objects", payload);
-                    addObjectsInfoIntoCollections((JSONArray) res.getPayload().get("objects"));
-
-                    List<String> missingUids = new ArrayList<>();
-                    for (String uid : objectsToRetrieveChunk) {
-                        if (!configuration.getUidToName().containsKey(uid)) {
-                            missingUids.add(uid);
-                        }
-                    }
-
-                    configuration.getLogger().info(res.getPayload().get("total") + " objects were retrieved. New size of nested objects queue is " + objectsQueue.size());
-                    if (!missingUids.isEmpty()) {
-                        configuration.getLogger().info("There are " + missingUids.size() + " failed / non-object uid(s) " + missingUids.toString());
-                    }
-                }
-                catch (ApiClientException e) {
-                    handleException(e, "Failed to run show-objects");
-                }
-            }
+            //The inline layers add their objects to the package
+            waitForInlineLayers(context);
 
+            retrieveNestedObjects(context);
 
             //Crete a Html page that contains the objects of the package
-            writeDictionary(packageName);
+            writeDictionary(context);
 
             //Create a policy package
-            policyPackage = new PolicyPackage(packageName, accessLayers, threatLayers, natLayer, allTypes);
+            policyPackage = new PolicyPackage(packageName, accessLayers, threatLayers, natLayer, context.getAllTypes());
 
             //Handle gateways that the policy is install on
             JSONArray gatewayObjects = new JSONArray();
-            for (GatewayAndServer gateway : configuration.getGatewaysWithPolicy()) {
+            for (GatewayAndServer gateway : domain.getGatewaysWithPolicy()) {
                 //Add all the relevant gateways and servers for the current package
                 if (gateway.getAccessPolicy() != null && packageName.equalsIgnoreCase(gateway.getAccessPolicy()) ||
                         gateway.getThreatPolicy() != null && packageName.equalsIgnoreCase(gateway.getThreatPolicy())) {
@@ -658,44 +1394,140 @@ public class ShowPackageTool {
 
             //Create a html page that contains the gateways
             if (!gatewayObjects.isEmpty()) {
-                writeGateways(packageName, gatewayObjects);
+                writeGateways(domain, packageName, gatewayObjects);
             }
         }
+        catch (DomainExportException e) {
+            //The export of the whole domain is stopped, not only the export of this package
+            throw e;
+        }
         catch (Exception e){
 
             handleException(e, "Error: failed while creating policy package: '" + packageName + "'. Exception: " + e.getMessage());
         }
         finally {
-            // initialize it for he next package
-            allTypes = null;
-            configuration.getUidToName().clear();
+            // The pending files of the package are deleted (and its pending inline layers are cancelled)
+            if (context != null) {
+                configuration.closePackageContext(context);
+            }
         }
         return policyPackage;
     }
 
+    /**
+     * This function retrieves the nested objects (e.g. group members) which are waiting in the nested objects queue.
+     * Several show-objects batches run in parallel on the fetch executor. The nested objects which are found in the
+     * retrieved objects are added to the queue and are retrieved by the next batches.
+     * The size of the batches is taken from the objects batch limit, which may adapt to the measured throughput.
+     */
+    private static void retrieveNestedObjects(PackageExportContext context) {
+
+        final Queue<String> objectsQueue = context.getNestedObjectsToRetrieve();
+        final AdaptiveLimit batchLimit = configuration.getObjectsBatchLimit();
+        final int maxBatchesInFlight = configuration.getFetchThreads();
+        final CompletionService<ShowObjectsTask> completionService =
+                new ExecutorCompletionService<>(configuration.getFetchExecutor());
+        int batchesInFlight = 0;
+
+        configuration.getLogger().info("There are " + objectsQueue.size() + " nested object(s) to retrieve (with "
+                + (batchLimit.isAdaptive() ? "adaptive limit starting at " : "limit ") + batchLimit.get()
+                + ", up to " + maxBatchesInFlight + " batch(es) in parallel)");
+
+        while (!objectsQueue.isEmpty() || batchesInFlight > 0) {
+
+            while (batchesInFlight < maxBatchesInFlight && !objectsQueue.isEmpty()) {
+                final int limit = batchLimit.get();
+                final Set<String> objectsToRetrieveChunk = new LinkedHashSet<>();
+                String uidFromQueue;
+                while (objectsToRetrieveChunk.size() < limit && (uidFromQueue = objectsQueue.poll()) != null) {
+                    objectsToRetrieveChunk.add(uidFromQueue);
+                }
+                completionService.submit(new ShowObjectsTask(context.getDomain(), objectsToRetrieveChunk, limit));
+                batchesInFlight++;
+            }
+
+            final ShowObjectsTask task;
+            try {
+                task = completionService.take().get();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                handleException(e, "Interrupted while retrieving the nested objects");
+                return;
+            }
+            catch (ExecutionException e) {
+                batchesInFlight--;
+                handleException(e, "Failed to run show-objects");
+                continue;
+            }
+            batchesInFlight--;
+
+            ApiResponse res = task.getResponse();
+            if (task.getException() != null || res == null || !res.isSuccess()) {
+                batchLimit.onFailure(task.getLimit());
+
+                //Retry the objects in smaller batches
+                if (batchLimit.isAdaptive() && task.getUids().size() > 1) {
+                    configuration.getLogger().debug("show-objects of " + task.getUids().size()
+                            + " objects failed, retrying with limit " + batchLimit.get());
+                    objectsQueue.addAll(task.getUids());
+                    continue;
+                }
+
+                if (task.getException() != null) {
+                    handleException(task.getException(), "Failed to run show-objects");
+                }
+                else {
+                    configuration.getLogger().severe("Failed to run show-objects. " + errorResponseToString(res));
+                }
+                continue;
+            }
+
+            final JSONArray objects = (JSONArray) res.getPayload().get("objects");
+            batchLimit.onSuccess(task.getLimit(), objects == null ? 0 : objects.size(), task.getElapsedMillis());
+
+            //New nested objects that are found here are added to the queue
+            addObjectsInfoIntoCollections(context, objects);
+
+            List<String> missingUids = new ArrayList<>();
+            for (String uid : task.getUids()) {
+                if (!context.getUidToName().containsKey(uid)) {
+                    missingUids.add(uid);
+                }
+            }
+
+            configuration.getLogger().info(res.getPayload().get("total") + " objects were retrieved. New size of nested objects queue is " + objectsQueue.size());
+            if (!missingUids.isEmpty()) {
+                configuration.getLogger().info("There are " + missingUids.size() + " failed / non-object uid(s) " + missingUids.toString());
+            }
+        }
+    }
+
     /**
      * This function sets the access and threat layers list and the nat layer according to the layers
      * which exist
      *
      * on the given package
      *
+     * @param domain the export context of the domain that the package belongs to
      * @param packageName package name
      * @param accessLayers list of access layers that the function fills
      * @param threatLayers list of threat layers that the function fills
      *
      * @return natLayer nat layer that the function sets
      */
-    private static Layer aggregatePackageLayers(String packageName, List<Layer> accessLayers,
+    private static Layer aggregatePackageLayers(DomainExportContext domain, String packageName, List<Layer> accessLayers,
                                                 List<Layer> threatLayers){
         ApiResponse res  = null;
         Layer natLayer = null;
         try {
             configuration.getLogger().debug("Run command: 'show-package' " + packageName + "' with details level 'full'");
-            res = client.apiCall(loginResponse, "show-package", "{\"name\" : \"" + packageName + "\"}");
+            res = client.apiCall(domain.getLoginResponse(), "show-package", "{\"name\" : \"" + packageName + "\"}");
         }
         catch (ApiClientException e) {
-            logoutReportAndExit("Failed to run show-package command on package: '" + packageName + "'. Aborting. " +
-                    ""+ e.getMessage(), MessageType.SEVERE);
+            //Only this package fails, the other packages (which may be exported in parallel) go on
+            handleException(e, "Failed to run show-package command on package: '" + packageName + "'");
+            return null;
         }
 
         if (res == null || !res.isSuccess()) {
@@ -726,14 +1558,14 @@ public class ShowPackageTool {
                 //Nat layer
                 natLayer = new Layer();
                 natLayer.setName("NAT");
-                JSONObject domain = (JSONObject) response.get("domain");
-                natLayer.setDomain(domain.get("name").toString());
+                JSONObject packageDomain = (JSONObject) response.get("domain");
+                natLayer.setDomain(packageDomain.get("name").toString());
 
                 if (natLayer.getDomain().equalsIgnoreCase("SMC User")) {
                     natLayer.setDomain("Management server");
                 }
                 configuration.getLogger().debug("Found nat layer in package: '" + packageName + "'");
-                natLayer.setDomainType(domain.get("domain-type").toString());
+                natLayer.setDomainType(packageDomain.get("domain-type").toString());
                 natLayer.setHtmlFileName(packageName + " " + natLayer.getName() + "-" + natLayer.getDomain() + ".html");
             }
         }
@@ -754,11 +1586,11 @@ public class ShowPackageTool {
      * This function creates a payload in order to create a html page of a given access layer.
      *
      * @param accessLayer the access {@link Layer} that the html page will be created for
-     * @param packageName the package name that the layer belongs to
+     * @param context the export context of the package that the layer belongs to
      *
      * @return True (False in case of an error).
      */
-    private static boolean showAccessRulebase(Layer accessLayer, String packageName) {
+    private static boolean showAccessRulebase(Layer accessLayer, PackageExportContext context) {
 
         //get details of existing access rulebase
         JSONObject payload = new JSONObject();
@@ -780,7 +1612,7 @@ public class ShowPackageTool {
         }
 
         configuration.getLogger().debug("Run command: 'show-access-rulebase' with payload: " + payload.toJSONString());
-        return showRulebase(accessLayer, packageName, "show-access-rulebase", RulebaseType.ACCESS, payload, accessTypes);
+        return showRulebase(accessLayer, context, "show-access-rulebase", RulebaseType.ACCESS, payload, accessTypes);
 
     }
 
@@ -788,31 +1620,60 @@ public class ShowPackageTool {
      * This function creates a payload in order to create a html page of a given nat layer.
      *
      * @param natLayer the nat {@link Layer} that the html page will be created for
-     * @param packageName the package name that the layer belongs to
+     * @param context the export context of the package that the layer belongs to
+     *
+     * @return True (False in case of an error).
+     */
+    private static boolean showNatRulebase(Layer natLayer, PackageExportContext context) {
+
+        JSONObject payload = new JSONObject();
+        configuration.getLogger().info("Starting handling nat layer: ");
+
+        payload.put("package", context.getPackageName());
+        payload.put("details-level", "full");
+        payload.put("use-object-dictionary", true);
+
+        addNewFlagsToControlDetailsLevel(payload);
+
+        configuration.getLogger().debug("Run command: 'show-nat-rulebase' with payload: " + payload.toJSONString());
+        return showRulebase( natLayer, context, "show-nat-rulebase", RulebaseType.NAT, payload, natTypes);
+
+    }
+
+    /**
+     * Utility function that retrieves the rulebase and writes it to the html page.
+     *
+     * @param layer the layer whose rulebase is to be written
+     * @param context the export context of the package that the layer belongs to
+     * @param command the show command to be run (access/nat)
+     * @param rulebaseType {@link RulebaseType} the rulebase's type
+     * @param payloadTemplate the payloadTemplate to run with the command
+     * @param types supported rulebases
      *
      * @return True (False in case of an error).
      */
-    private static boolean showNatRulebase(Layer natLayer, String packageName) {
-
-        JSONObject payload = new JSONObject();
-        configuration.getLogger().info("Starting handling nat layer: ");
-
-        payload.put("package", packageName);
-        payload.put("details-level", "full");
-        payload.put("use-object-dictionary", true);
-
-        addNewFlagsToControlDetailsLevel(payload);
+    private static boolean showRulebase(Layer layer, PackageExportContext context, String command,
+                                        RulebaseType rulebaseType, JSONObject payloadTemplate, String[] types){
 
-        configuration.getLogger().debug("Run command: 'show-nat-rulebase' with payload: " + payload.toJSONString());
-        return showRulebase( natLayer, packageName, "show-nat-rulebase", RulebaseType.NAT, payload, natTypes);
+        if (carryOverRulebase(layer, context, rulebaseType)) {
+            return true;
+        }
 
+        LayerExportContext layerContext = context.openLayerContext();
+        try {
+            return showRulebase(layer, layerContext, command, rulebaseType, payloadTemplate, types);
+        }
+        finally {
+            context.closeLayerContext(layerContext);
+        }
     }
 
     /**
-     * Utility function that retrieves the rulebase and writes it to the html page.
+     * This function retrieves the rulebase of a given layer and writes it into the layer's own files.
+     * The inline layers which are found in the rulebase are scheduled on the layer executor as soon as they are found.
      *
      * @param layer the layer whose rulebase is to be written
-     * @param packageName the package name that the layer belongs to
+     * @param layerContext the export context of the layer
      * @param command the show command to be run (access/nat)
      * @param rulebaseType {@link RulebaseType} the rulebase's type
      * @param payloadTemplate the payloadTemplate to run with the command
@@ -820,28 +1681,27 @@ public class ShowPackageTool {
      *
      * @return True (False in case of an error).
      */
-    private static boolean showRulebase(Layer layer, String packageName, String command,
+    private static boolean showRulebase(Layer layer, LayerExportContext layerContext, String command,
                                         RulebaseType rulebaseType, JSONObject payloadTemplate, String[] types){
         ApiResponse res;
 
         int totalObjects = 0;
-        int limit = configuration.getQueryLimit();
 
         Set<Layer> inlineLayers = new HashSet<>();
-
+        final PackageExportContext context = layerContext.getPackage();
 
         // Getting the total
         JSONObject gettingTotalPayload = new JSONObject(payloadTemplate);
         gettingTotalPayload.put("details-level", "uid");
         gettingTotalPayload.put("limit", "0");
         try {
-            res = client.apiCall(loginResponse, command, gettingTotalPayload);
+            res = cachedApiCall(context.getDomain(), command, gettingTotalPayload);
         }
         catch (ApiClientException e) {
             handleException(e, "Failed to run show rulebase (" + layer.getName() + ")");
             configuration.getLogger().debug("Following the error, creating an empty html file for layer: '"
                     + layer.getName() + "'");
-            writeRulebase(layer.getName(), packageName, rulebaseType, layer.getDomain(), inlineLayers, true);
+            writeRulebase(layer.getName(), layerContext, rulebaseType, layer.getDomain(), inlineLayers, true);
             return false;
         }
 
@@ -850,7 +1710,7 @@ public class ShowPackageTool {
                     + errorResponseToString(res));
             configuration.getLogger().debug("Following the error, creating an empty html file for layer: '"
                     + layer.getName() + "'");
-            writeRulebase(layer.getName(), packageName, rulebaseType, layer.getDomain(), inlineLayers, true);
+            writeRulebase(layer.getName(), layerContext, rulebaseType, layer.getDomain(), inlineLayers, true);
             return false;
         }
 
@@ -861,87 +1721,84 @@ public class ShowPackageTool {
         }
 
         if (totalObjects > 0) {
-            final ExecutorService executorService = Executors.newFixedThreadPool(NUMBER_OF_EXECUTORS);
-            List<Callable<ApiResponse>> tasks = new ArrayList<>(totalObjects / limit);
-
-            int offset = 0;
-            while (offset < totalObjects) {
-                JSONObject payload = new JSONObject(payloadTemplate);
-                payload.put("offset", offset);
-                payload.put("limit", limit);
-                tasks.add(new ApiCallTask(command, payload));
-
-                offset += limit;
-            }
+            // The pages are fetched in parallel, but they are merged and written in their original order.
+            // Only a bounded window of pages is kept in memory at the same time.
+            // The limit of every page is chosen when the page is submitted, so it may adapt to the previous pages.
+            final OrderedTaskPipeline<ApiResponse> pipeline = new OrderedTaskPipeline<>(configuration.getFetchExecutor(),
+                                                                                        getPipelineWindow());
+            final AdaptiveLimit pageLimit = configuration.getRulebasePageLimit();
+            int numberOfTasks = 0;
+            int offset = submitRulebasePages(context.getDomain(), pipeline, command, payloadTemplate, 0, totalObjects, pageLimit);
 
             try {
                 configuration.getLogger().debug("Command [" + command + "] uid " + payloadTemplate.get("uid")
-                        + " : Starting execution of " + tasks.size() + " tasks (with " + NUMBER_OF_EXECUTORS + " executor(s))");
-
-                final List<Future<ApiResponse>> futures = executorService.invokeAll(tasks);
-                executorService.shutdown();
-
-                boolean serviceTerminatedSuccessfully = executorService.awaitTermination(3, TimeUnit.HOURS);
-
-                if (!serviceTerminatedSuccessfully) {
-                    configuration.getLogger().severe("Failed to run show rulebase (" + layer.getName() + "). Timeout after 3 hours.");
-                    configuration.getLogger().debug("Following the error, creating an empty html file for layer: '"
-                            + layer.getName() + "'");
-                    writeRulebase(layer.getName(), packageName, rulebaseType, layer.getDomain(), inlineLayers, true);
-                    return false;
-                }
-
-                configuration.getLogger().debug("Command [" + command + "] uid " + payloadTemplate.get("uid") + " : Finished execution of " + tasks.size() + " tasks");
-
-                JSONArray rulebases = new JSONArray();
-
-                for (Future<ApiResponse> f : futures) {
-                    res = f.get();
+                        + " : Starting execution of " + totalObjects + " rules (with " + configuration.getFetchThreads()
+                        + " executor(s), window of " + getPipelineWindow() + " page(s), "
+                        + (pageLimit.isAdaptive() ? "adaptive limit starting at " : "limit ") + pageLimit.get() + ")");
+
+                // The uid of the section at the end of the last page, its rules may go on in the next page
+                String openSectionUid = null;
+
+                while (pipeline.hasNext()) {
+                    res = pipeline.next(3, TimeUnit.HOURS);
+                    numberOfTasks++;
+
+                    if (res == null || !res.isSuccess()) {
+                        pipeline.cancel();
+                        configuration.getLogger().severe("Failed to run show rulebase ('" + layer.getName() + "'). "
+                                + errorResponseToString(res));
+                        configuration.getLogger().debug("Following the error, creating an empty html file for layer: '"
+                                + layer.getName() + "'");
+                        writeRulebase(layer.getName(), layerContext, rulebaseType, layer.getDomain(), inlineLayers, true);
+                        return false;
+                    }
+                    offset = submitRulebasePages(context.getDomain(), pipeline, command, payloadTemplate, offset, totalObjects, pageLimit);
 
                     JSONArray jsonArrayOfObjectDictionary = (JSONArray)res.getPayload().get("objects-dictionary");
-                    addObjectsInfoIntoCollections(jsonArrayOfObjectDictionary);
+                    addObjectsInfoIntoCollections(context, jsonArrayOfObjectDictionary);
                     final JSONArray currentRulebase = (JSONArray) res.getPayload().get("rulebase");
 
-
-                    if (!rulebases.isEmpty() && !currentRulebase.isEmpty()) {
-                        final JSONObject lastAdded = (JSONObject) rulebases.get(rulebases.size() - 1);
+                    if (openSectionUid != null && !currentRulebase.isEmpty()) {
                         final JSONObject firstNew = (JSONObject) currentRulebase.get(0);
 
-                        if (types[0].equalsIgnoreCase(lastAdded.get("type").toString())
-                                && types[0].equalsIgnoreCase(firstNew.get("type").toString())
-                                && Objects.equals(lastAdded.get("uid").toString(), firstNew.get("uid").toString())) {
-
-                            // firstNew is merged into lastAdded
-                            ((JSONArray)lastAdded.get("rulebase")).addAll((JSONArray)firstNew.get("rulebase"));
-                            lastAdded.put("to", firstNew.get("to"));
+                        if (types[0].equalsIgnoreCase(firstNew.get("type").toString())
+                                && openSectionUid.equals(firstNew.get("uid").toString())) {
 
-                            // firstNew is deleted
+                            // The header of the section was already written, only its next rules are written
+                            // (the page shows the section up to its last rule)
+                            if (firstNew.get("rulebase") instanceof JSONArray) {
+                                inlineLayers.addAll(addRulebase(layerContext, (JSONArray) firstNew.get("rulebase"),
+                                                                types, rulebaseType));
+                            }
                             currentRulebase.remove(0);
                         }
                     }
 
-                    rulebases.addAll(currentRulebase);
-
-                    if (rulebases.size() > 1) {
-                        final JSONArray allExceptTheLastItemRulebase = new JSONArray();
-                        allExceptTheLastItemRulebase.addAll(rulebases.subList(0, rulebases.size() - 1));
-
-                        final JSONArray theLastItemRulebase = new JSONArray();
-                        theLastItemRulebase.addAll(rulebases.subList(rulebases.size() - 1, rulebases.size()));
-
-                        inlineLayers.addAll(addRulebase(allExceptTheLastItemRulebase, types, rulebaseType));
-
-                        rulebases = theLastItemRulebase;
+                    if (!currentRulebase.isEmpty()) {
+                        final JSONObject lastNew = (JSONObject) currentRulebase.get(currentRulebase.size() - 1);
+                        openSectionUid = types[0].equalsIgnoreCase(lastNew.get("type").toString())
+                                ? lastNew.get("uid").toString() : null;
                     }
+
+                    inlineLayers.addAll(addRulebase(layerContext, currentRulebase, types, rulebaseType));
                 }
 
-                inlineLayers.addAll(addRulebase(rulebases, types, rulebaseType));
+                configuration.getLogger().debug("Command [" + command + "] uid " + payloadTemplate.get("uid") + " : Finished execution of " + numberOfTasks + " tasks");
+            }
+            catch (TimeoutException e) {
+                pipeline.cancel();
+                configuration.getLogger().severe("Failed to run show rulebase (" + layer.getName() + "). Timeout after 3 hours.");
+                configuration.getLogger().debug("Following the error, creating an empty html file for layer: '"
+                        + layer.getName() + "'");
+                writeRulebase(layer.getName(), layerContext, rulebaseType, layer.getDomain(), inlineLayers, true);
+                return false;
             }
             catch (InterruptedException | ExecutionException e) {
+                pipeline.cancel();
                 handleException(e, "Failed to run show rulebase (" + layer.getName() + ")");
                 configuration.getLogger().debug("Following the error, creating an empty html file for layer: '"
                         + layer.getName() + "'");
-                writeRulebase(layer.getName(), packageName, rulebaseType, layer.getDomain(), inlineLayers, true);
+                writeRulebase(layer.getName(), layerContext, rulebaseType, layer.getDomain(), inlineLayers, true);
                 return false;
             }
         }
@@ -950,95 +1807,217 @@ public class ShowPackageTool {
         configuration.getLogger().debug("Found " + inlineLayers.size() + " inline layer(s)");
         configuration.getLogger().debug("Creating html file for layer: '" + layer.getName() + "'");
 
-        boolean writeRulebaseResult = writeRulebase(layer.getName(), packageName, rulebaseType,
+        boolean writeRulebaseResult = writeRulebase(layer.getName(), layerContext, rulebaseType,
                 layer.getDomain(), inlineLayers, false);
 
         if (!writeRulebaseResult){
-            writeRulebase(layer.getName(), packageName, rulebaseType, layer.getDomain(), inlineLayers, true);
+            writeRulebase(layer.getName(), layerContext, rulebaseType, layer.getDomain(), inlineLayers, true);
         }
 
-        // Write rulebase inline layers
-        // In the current design we must create the files of the inline layers after the file of the parent layer is
-        // written, otherwise the file of the parent layer will be broken.
-        for (Layer inlineLayer : inlineLayers) {
-            if(configuration.isKnownInlineLayer(inlineLayer.getUid())){
-                configuration.getLogger().debug("Inline layer : '" + inlineLayer.getName() + "'  was already created.");
-                continue;
+        configuration.getLogger().info("Done handling rulebase '" + layer.getName() + "'");
+
+        return writeRulebaseResult;
+    }
+
+    /**
+     * This function schedules the export of a given inline layer on the layer executor (unless it was already written).
+     * Every layer is written into its own files, so the inline layer doesn't wait for its parent layer.
+     * The package waits for its inline layers before it writes its objects.
+     *
+     * @param inlineLayer the inline layer
+     * @param context the export context of the package that the layer belongs to
+     */
+    private static void scheduleInlineLayer(final Layer inlineLayer, final PackageExportContext context)
+    {
+        // The inline layer may be written by another package at the same time, only the first one writes it
+        if(!context.getDomain().setKnownInlineLayers(inlineLayer.getUid())){
+            configuration.getLogger().debug("Inline layer : '" + inlineLayer.getName() + "'  was already created.");
+            return;
+        }
+        configuration.getLogger().debug("Scheduling inline layer: '" + inlineLayer.getName() + "'");
+        context.getPendingInlineLayers().offer(configuration.getLayerExecutor().submit(new Runnable() {
+            @Override
+            public void run()
+            {
+                configuration.getLogger().debug("Creating inline layer: '" + inlineLayer.getName() + "'");
+                if ( !showAccessRulebase(inlineLayer, context) ) {
+                    configuration.getLogger().warning("Failed to create inline-layer, name: '" + inlineLayer.getName() + "'");
+                }
+            }
+        }));
+    }
+
+    /**
+     * This function waits for the inline layers of a given package, including the inline layers which are scheduled
+     * by other inline layers meanwhile.
+     *
+     * @param context the export context of the package
+     *
+     * @throws InterruptedException in case the thread was interrupted while waiting
+     */
+    private static void waitForInlineLayers(PackageExportContext context) throws InterruptedException
+    {
+        Future<?> inlineLayer;
+        while ((inlineLayer = context.getPendingInlineLayers().poll()) != null) {
+            try {
+                inlineLayer.get();
             }
-            configuration.setKnownInlineLayers(inlineLayer.getUid());
-            configuration.getLogger().debug("Creating inline layer: '" + inlineLayer.getName() + "'");
-            if ( !showAccessRulebase(inlineLayer, packageName) ) {
-                configuration.getLogger().warning("Failed to create inline-layer, name: '" + inlineLayer.getName() + "'");
+            catch (ExecutionException e) {
+                handleException(e, "Failed to create an inline layer of package '" + context.getPackageName() + "'");
             }
         }
+    }
 
-        configuration.getLogger().info("Done handling rulebase '" + layer.getName() + "'");
+    /**
+     * This function submits the next pages of a rulebase to the pipeline, as long as there is a free place in the
+     * pipeline's window. The limit of each page is taken from the page limit at the time the page is submitted.
+     *
+     * @param domain the export context of the domain
+     * @param pipeline the pipeline that fetches the pages
+     * @param command the show command to be run
+     * @param payloadTemplate the payload of the command (without offset and limit)
+     * @param offset the offset of the first page to submit
+     * @param totalObjects the total number of rules in the rulebase
+     * @param pageLimit the limit of the pages
+     *
+     * @return the offset of the first page which wasn't submitted yet
+     */
+    private static int submitRulebasePages(DomainExportContext domain, OrderedTaskPipeline<ApiResponse> pipeline, String command,
+                                           JSONObject payloadTemplate, int offset, int totalObjects,
+                                           AdaptiveLimit pageLimit)
+    {
+        while (offset < totalObjects && !pipeline.isFull()) {
+            int limit = pageLimit.get();
+            JSONObject payload = new JSONObject(payloadTemplate);
+            payload.put("offset", offset);
+            payload.put("limit", limit);
+            pipeline.submit(new ApiCallTask(domain, command, payload, pageLimit));
 
-        return writeRulebaseResult;
+            offset += limit;
+        }
+        return offset;
+    }
+
+    /**
+     * @return the maximum number of pages of a rulebase that are fetched (or kept in memory) at the same time
+     */
+    private static int getPipelineWindow()
+    {
+        return configuration.getFetchThreads() * PAGES_AHEAD_PER_THREAD;
     }
 
     /**
      *This function retrieves the rulebase and writes it to the html page.
      *
-     * @param packageName the package name that the layer belongs to
+     * @param context the export context of the package that the layer belongs to
+     * @param threatLayer the threat layer whose rulebase is to be written
+     *
+     * @return True (False in case of an error).
+     */
+    private static boolean showThreatRulebase(PackageExportContext context, Layer threatLayer) {
+
+        configuration.getLogger().info("Starting handling threat layer: '" + threatLayer.getName() + "'");
+
+        if (carryOverRulebase(threatLayer, context, RulebaseType.THREAT)) {
+            return true;
+        }
+
+        LayerExportContext layerContext = context.openLayerContext();
+        try {
+            return showThreatRulebase(layerContext, threatLayer);
+        }
+        finally {
+            context.closeLayerContext(layerContext);
+        }
+    }
+
+    /**
+     *This function retrieves the rulebase of a given threat layer and writes it into the layer's own files.
+     *
+     * @param layerContext the export context of the layer
      * @param threatLayer the threat layer whose rulebase is to be written
      *
      * @return True (False in case of an error).
      */
-    private static boolean showThreatRulebase(String packageName, Layer threatLayer) {
+    private static boolean showThreatRulebase(LayerExportContext layerContext, Layer threatLayer) {
 
         ApiResponse res;
-        boolean finished = false;
-        int iterations   = 0;
-        int receivedObjects;
         int totalObjects = 0;
-        int limit = configuration.getQueryLimit();
-
-        configuration.getLogger().info("Starting handling threat layer: '" + threatLayer.getName() + "'");
+        final PackageExportContext context = layerContext.getPackage();
         configuration.getLogger().debug("Run command: 'show-threat-rulebase' for rulebase: '" + threatLayer.getUid()
                 + "' ('" + threatLayer.getName() + "') with details level 'full'");
 
-        JSONObject payload = new JSONObject();
-        payload.put("uid", threatLayer.getUid());
-        payload.put("details-level", "full");
-        payload.put("use-object-dictionary",true);
-
-        addNewFlagsToControlDetailsLevel(payload);
+        JSONObject payloadTemplate = new JSONObject();
+        payloadTemplate.put("uid", threatLayer.getUid());
+        payloadTemplate.put("details-level", "full");
+        payloadTemplate.put("use-object-dictionary",true);
 
-        while (!finished) {
-            payload.put("offset", iterations * limit);
-            payload.put("limit", limit);
+        addNewFlagsToControlDetailsLevel(payloadTemplate);
 
-            try {
-                res = client.apiCall(loginResponse, "show-threat-rulebase", payload);
-            }
-            catch (ApiClientException e) {
-                handleException(e, "Failed to run \"show threat-rulebase\" ('" + threatLayer.getName() + "')");
-                writeRulebase(threatLayer.getName(),packageName,RulebaseType.THREAT, threatLayer.getDomain(),
-                        Collections.<Layer>emptySet(), true);
-                return false;
-            }
+        // Getting the total
+        JSONObject gettingTotalPayload = new JSONObject(payloadTemplate);
+        gettingTotalPayload.put("details-level", "uid");
+        gettingTotalPayload.put("limit", "0");
+        try {
+            res = cachedApiCall(context.getDomain(), "show-threat-rulebase", gettingTotalPayload);
+        }
+        catch (ApiClientException e) {
+            handleException(e, "Failed to run \"show threat-rulebase\" ('" + threatLayer.getName() + "')");
+            writeRulebase(threatLayer.getName(),layerContext,RulebaseType.THREAT, threatLayer.getDomain(),
+                    Collections.<Layer>emptySet(), true);
+            return false;
+        }
 
-            if (checkAndExitInCaseOfError(res, threatLayer)){
-                writeRulebase(threatLayer.getName(),packageName,RulebaseType.THREAT, threatLayer.getDomain(),
-                        Collections.<Layer>emptySet(), true);
-                return false;
-            }
+        if (checkAndExitInCaseOfError(res, threatLayer)){
+            writeRulebase(threatLayer.getName(),layerContext,RulebaseType.THREAT, threatLayer.getDomain(),
+                    Collections.<Layer>emptySet(), true);
+            return false;
+        }
 
+        if (res.getPayload().containsKey("total")) {
             totalObjects = Integer.parseInt(res.getPayload().get("total").toString());
-            if (totalObjects == 0) {
-                return true;
-            }
-            JSONArray jsonArrayOfObjectDictionary = (JSONArray)res.getPayload().get("objects-dictionary");
-            addObjectsInfoIntoCollections(jsonArrayOfObjectDictionary);
-            JSONArray rulebases = (JSONArray) res.getPayload().get("rulebase");
-            threatRulebase(rulebases, threatLayer);
+        }
+        if (totalObjects == 0) {
+            return true;
+        }
+
+        // The pages are fetched in parallel, but they are handled in their original order
+        final OrderedTaskPipeline<ApiResponse> pipeline = new OrderedTaskPipeline<>(configuration.getFetchExecutor(),
+                                                                                    getPipelineWindow());
+        final AdaptiveLimit pageLimit = configuration.getRulebasePageLimit();
+        int offset = submitRulebasePages(context.getDomain(), pipeline, "show-threat-rulebase", payloadTemplate, 0, totalObjects, pageLimit);
+
+        try {
+            while (pipeline.hasNext()) {
+                res = pipeline.next(3, TimeUnit.HOURS);
+                offset = submitRulebasePages(context.getDomain(), pipeline, "show-threat-rulebase", payloadTemplate, offset, totalObjects, pageLimit);
+
+                if (checkAndExitInCaseOfError(res, threatLayer)){
+                    pipeline.cancel();
+                    writeRulebase(threatLayer.getName(),layerContext,RulebaseType.THREAT, threatLayer.getDomain(),
+                            Collections.<Layer>emptySet(), true);
+                    return false;
+                }
 
-            receivedObjects = Integer.parseInt(res.getPayload().get("to").toString());
-            if ( receivedObjects == totalObjects || iterations * limit >= totalObjects ) {
-                finished = true;
+                JSONArray jsonArrayOfObjectDictionary = (JSONArray)res.getPayload().get("objects-dictionary");
+                addObjectsInfoIntoCollections(context, jsonArrayOfObjectDictionary);
+                JSONArray rulebases = (JSONArray) res.getPayload().get("rulebase");
+                threatRulebase(layerContext, rulebases, threatLayer);
             }
-            iterations++;
+        }
+        catch (TimeoutException e) {
+            pipeline.cancel();
+            configuration.getLogger().severe("Failed to run \"show threat-rulebase\" ('" + threatLayer.getName() + "'). Timeout after 3 hours.");
+            writeRulebase(threatLayer.getName(),layerContext,RulebaseType.THREAT, threatLayer.getDomain(),
+                    Collections.<Layer>emptySet(), true);
+            return false;
+        }
+        catch (InterruptedException | ExecutionException e) {
+            pipeline.cancel();
+            handleException(e, "Failed to run \"show threat-rulebase\" ('" + threatLayer.getName() + "')");
+            writeRulebase(threatLayer.getName(),layerContext,RulebaseType.THREAT, threatLayer.getDomain(),
+                    Collections.<Layer>emptySet(), true);
+            return false;
         }
 
         configuration.getLogger().debug("Found " + totalObjects + " rules in: '" + threatLayer.getName() + "'");
@@ -1046,7 +2025,7 @@ public class ShowPackageTool {
 
         configuration.getLogger().info("Done handling rulebase: '" + threatLayer.getName() + "'");
 
-        return(writeRulebase(threatLayer.getName(),packageName,RulebaseType.THREAT, threatLayer.getDomain(),
+        return(writeRulebase(threatLayer.getName(),layerContext,RulebaseType.THREAT, threatLayer.getDomain(),
                 Collections.<Layer>emptySet(), false));
     }
 
@@ -1085,48 +2064,78 @@ public class ShowPackageTool {
      * This function adds all the rules of a given threat layer into the rules collection,
      * or writes a message into the log file in case of an unsupported rule type (not one of: threat-rule/place-holder)
      * and adds the objects to the object collection.
+     * The exception rulebases of the threat rules are fetched in parallel, but they are written in the order of the rules.
      *
+     * @param layerContext the export context of the layer
      * @param rulebases the rulbases whose rules are to be added
      * @param threatLayer The threat layer
      */
-    private static void threatRulebase(JSONArray rulebases, Layer threatLayer){
+    private static void threatRulebase(LayerExportContext layerContext, JSONArray rulebases, Layer threatLayer){
 
-        for (Object ruleObject : rulebases) {
+        final PackageExportContext context = layerContext.getPackage();
+
+        final OrderedTaskPipeline<JSONObject> exceptionsPipeline =
+                new OrderedTaskPipeline<>(configuration.getFetchExecutor(), getPipelineWindow());
 
+        for (Object ruleObject : rulebases) {
             JSONObject rule = (JSONObject) ruleObject;
             if ("threat-rule".equalsIgnoreCase(rule.get("type").toString())) {
-                writeJsonObjectToFile(rule, configuration.getRulbaseWriter(), true);
-                String ruleUid = rule.get("uid").toString();
+                exceptionsPipeline.submit(new ThreatExceptionTask(context.getDomain(), threatLayer, rule.get("uid").toString()));
+            }
+        }
 
-                JSONObject exceptionRulebase = showThreatExceptionRulebase(threatLayer, ruleUid);
-                if (exceptionRulebase == null) {
-                    continue;
-                }
-                JSONArray exceptions = (JSONArray) exceptionRulebase.get("rulebase");
-                configuration.getLogger().debug("Found "+ exceptions.size() + " exception(s) in rule: '" + ruleUid + "'");
+        try {
+            for (Object ruleObject : rulebases) {
 
-                addRulebase(exceptions, threatTypes, RulebaseType.THREAT);
-                JSONArray objects = (JSONArray) exceptionRulebase.get("objects-dictionary");
-                addObjectsInfoIntoCollections(objects);
-            }
-            else if ("place-holder".equalsIgnoreCase(rule.get("type").toString())) {
-                writeJsonObjectToFile(rule, configuration.getRulbaseWriter(), true);
-            }
-            else {
-                configuration.getLogger().severe("Unsupported type: " + rule.get("type").toString());
+                JSONObject rule = (JSONObject) ruleObject;
+                if ("threat-rule".equalsIgnoreCase(rule.get("type").toString())) {
+                    writeJsonObjectToFile(layerContext, rule);
+                    String ruleUid = rule.get("uid").toString();
+
+                    JSONObject exceptionRulebase;
+                    try {
+                        exceptionRulebase = exceptionsPipeline.next();
+                    }
+                    catch (ExecutionException e) {
+                        handleException(e, "Failed to run show-threat-rule-exception-rulebase command ('"
+                                + threatLayer.getName() + "' rule: '" + ruleUid + "')");
+                        continue;
+                    }
+                    if (exceptionRulebase == null) {
+                        continue;
+                    }
+                    JSONArray exceptions = (JSONArray) exceptionRulebase.get("rulebase");
+                    configuration.getLogger().debug("Found "+ exceptions.size() + " exception(s) in rule: '" + ruleUid + "'");
+
+                    addRulebase(layerContext, exceptions, threatTypes, RulebaseType.THREAT);
+                    JSONArray objects = (JSONArray) exceptionRulebase.get("objects-dictionary");
+                    addObjectsInfoIntoCollections(context, objects);
+                }
+                else if ("place-holder".equalsIgnoreCase(rule.get("type").toString())) {
+                    writeJsonObjectToFile(layerContext, rule);
+                }
+                else {
+                    configuration.getLogger().severe("Unsupported type: " + rule.get("type").toString());
+                }
             }
         }
+        catch (InterruptedException e) {
+            exceptionsPipeline.cancel();
+            Thread.currentThread().interrupt();
+            handleException(e, "Interrupted while waiting for the exceptions of threat layer ('" + threatLayer.getName() + "')");
+        }
     }
 
     /**
      *This function returns all the threat exception rules of a given rule and given threat layer .
      *
+     * @param domain the export context of the domain
      * @param threatLayer the threat layer of the threat rule
      * @param ruleUid the rule uid of the rule containing the exception rules
      *
      * @return the exception rules, or null in case of fail.
      */
-    private static JSONObject showThreatExceptionRulebase(Layer threatLayer, String ruleUid) {
+    private static JSONObject showThreatExceptionRulebase(DomainExportContext domain, Layer threatLayer, String ruleUid) {
 
         ApiResponse res;
         //Creating the payload
@@ -1145,7 +2154,7 @@ public class ShowPackageTool {
                     "for threat layer: '" + threatLayer.getName() + "' ('" + ruleUid
                     + "') with details level 'full'");
 
-            res = client.apiCall(loginResponse,"show-threat-rule-exception-rulebase", payload);
+            res = cachedApiCall(domain, "show-threat-rule-exception-rulebase", payload);
         }
         catch (ApiClientException e) {
             // probably due to a version that does not support threatLayerUid and supports only layerName
@@ -1153,7 +2162,7 @@ public class ShowPackageTool {
             payload.put("name", threatLayer.getName());
 
             try {
-                res = client.apiCall(loginResponse,"show-threat-rule-exception-rulebase", payload);
+                res = cachedApiCall(domain, "show-threat-rule-exception-rulebase", payload);
             }
             catch (ApiClientException e1) {
                 handleException(e1,"Failed to run show-threat-rule-exception-rulebase command ("
@@ -1167,37 +2176,87 @@ public class ShowPackageTool {
                     errorResponseToString(res));
             return null;
         }
+        compactPage(res.getPayload());
         return res.getPayload();
     }
 
     /**
      *This function creates an objects html page for a given package.
      *
-     * @param packageName package name
+     * @param context the export context of the package
      */
-    private static void writeDictionary(String packageName){
+    private static void writeDictionary(PackageExportContext context){
+
+        //The objects are taken from the object store, only the package's objects are written.
+        //The objects are written straight into the json file of the objects
+        final Map<String, JSONObject> objectStore = context.getDomain().getObjectStore();
+        File objectsFile = configuration.getHtmlUtils().getObjectsJsonFile(context.getDomain().getOutputFolderPath(),
+                                                                          context.getPackageName());
+        try (JsonStreamWriter objectsWriter = new JsonStreamWriter(objectsFile)) {
+            objectsWriter.beginArray();
+            for (String uid : context.getUidToName().keySet()) {
+                JSONObject object = objectStore.get(uid);
+                if (object != null) {
+                    String type;
+                    if (object.containsKey(TYPE)) {
+                        type = (object).get(TYPE).toString();
+                    }
+                    else {
+                        //type field doesn't exist in the object, define the type as "undefined"
+                        type = UNDEFINED;
+                    }
+                    context.countType(type);
+                    objectsWriter.writeElement(object);
+                }
+            }
+            objectsWriter.endArray();
+        }
+        catch (IOException e) {
+            handleException(e,"Failed to write a JSON file for objects.");
+            return;
+        }
+        configuration.getLogger().debug("Package '" + context.getPackageName() + "' contains " + context.getUidToName().size()
+                + " object(s), the object store contains " + objectStore.size() + " object(s)");
 
         try {
-            configuration.getObjectsWriter().writeBytes("]");
-            configuration.getHtmlUtils().writeObjectsHTML(packageName);
-            configuration.getObjectsWriter().seek(0);
-            configuration.getObjectsWriter().writeBytes("[");
+            configuration.getHtmlUtils().writeObjectsHTML(context.getDomain().getOutputFolderPath(), context.getPackageName());
         }
         catch (IOException e) {
             handleException(e,"Failed to write a HTML file for objects.");
         }
+
+        if (configuration.getHtmlUtils().isSharedDictionary()) {
+            try {
+                configuration.getHtmlUtils().writeUidToNameScript(context.getDomain().getOutputFolderPath(),
+                        context.getPackageName(), context.getUidToName());
+            }
+            catch (IOException e) {
+                handleException(e,"Failed to write the uid_to_name script of the package.");
+            }
+        }
+
+        if (context.getSearchIndex() != null) {
+            try {
+                configuration.getHtmlUtils().writeSearchIndexScript(context.getDomain().getOutputFolderPath(),
+                        context.getPackageName(), context.getUidToName(), objectStore, context.getSearchIndex());
+            }
+            catch (IOException e) {
+                handleException(e,"Failed to write the search index of the package.");
+            }
+        }
     }
 
     /**
      *This function creates a gateways html page for a given package.
      *
+     * @param domain the export context of the domain that the package belongs to
      * @param packageName package name
      * @param objectsCollection all the objects of the package.
      */
-    private static void writeGateways(String packageName, JSONArray objectsCollection){
+    private static void writeGateways(DomainExportContext domain, String packageName, JSONArray objectsCollection){
 
         try {
-            configuration.getHtmlUtils().writeGatewaysHTML(packageName, objectsCollection.toString());
+            configuration.getHtmlUtils().writeGatewaysHTML(domain.getOutputFolderPath(), packageName, objectsCollection.toString());
         }
         catch (IOException e) {
             handleException(e, "Failed to create a HTML file for gateways.");
@@ -1208,7 +2267,7 @@ public class ShowPackageTool {
      *This function is responsible for creating a html page for a given layer.
      *
      * @param layerName the layer's name
-     * @param packageName the package's name
+     * @param layerContext the export context of the layer
      * @param rulebaseType NAT/ACCESS/THREAT
      * @param domain domain
      * @param inlineLayers list of inLineLayers inside the layer
@@ -1216,22 +2275,30 @@ public class ShowPackageTool {
      *
      * @return True (False in case of an error).
      */
-    private static boolean writeRulebase(String layerName,String packageName, RulebaseType rulebaseType,
+    private static boolean writeRulebase(String layerName, LayerExportContext layerContext, RulebaseType rulebaseType,
                                          String domain, Set<Layer> inlineLayers, boolean failedCreatingRulebase){
 
-        //If it's nat change the layer name
-        if(rulebaseType == RulebaseType.NAT){
-            layerName = packageName + " " + layerName;
-        }
+        final PackageExportContext context = layerContext.getPackage();
+
+        layerName = getRulebaseLayerName(layerName, context.getPackageName(), rulebaseType);
 
         try {
-            configuration.getRulbaseWriter().writeBytes("]");
-            configuration.getHtmlUtils().writeRulebaseHTML(layerName, packageName, domain, loginResponse.getApiVersion(),
+            //The page gets only the names of the objects which its rules reference (unless the names are shared by
+            //all the pages of the package)
+            Map<String, String> uidToName = null;
+            if (!configuration.getHtmlUtils().isSharedDictionary()) {
+                uidToName = context.getUidToNameSubset(layerContext.getReferencedUids().keySet());
+            }
+            if (context.getSearchIndex() != null) {
+                context.getSearchIndex().addLayer(configuration.getHtmlUtils().getRulebaseFileName(layerName, domain),
+                                                  layerName, layerContext.getLayerRules());
+            }
+            File rulebaseFile = layerContext.finishRulebaseFile();
+            configuration.getHtmlUtils().writeRulebaseHTML(context.getDomain().getOutputFolderPath(), layerName,
+                    context.getPackageName(), domain, context.getDomain().getLoginResponse().getApiVersion(),
                     rulebaseType.typeToString(),
-                    configuration.getUidToName(),
-                    inlineLayers, failedCreatingRulebase);
-            configuration.getRulbaseWriter().seek(0);
-            configuration.getRulbaseWriter().writeBytes("[");
+                    uidToName,
+                    inlineLayers, failedCreatingRulebase, rulebaseFile);
         }
         catch (IOException e) {
             handleException(e,"Failed to create rulbase page");
@@ -1241,6 +2308,24 @@ public class ShowPackageTool {
         return true;
     }
 
+    /**
+     * This function returns the name of a given layer as it appears in the rulebase files.
+     *
+     * @param layerName the layer's name
+     * @param packageName the package name that the layer belongs to
+     * @param rulebaseType {@link RulebaseType} the rulebase's type
+     *
+     * @return the name of the layer in the rulebase files
+     */
+    private static String getRulebaseLayerName(String layerName, String packageName, RulebaseType rulebaseType)
+    {
+        //If it's nat change the layer name
+        if(rulebaseType == RulebaseType.NAT){
+            return packageName + " " + layerName;
+        }
+        return layerName;
+    }
+
     /**
      * This function creates a new layer object for each layer in the given layers and
      * adds it to the given layers collection.
@@ -1291,19 +2376,28 @@ public class ShowPackageTool {
     /**
      * This function adds all of the rules into the rules collection
      * or writes message into the log file in case of an unsupported rule type (from the types list).
-     * While handling the rules of the given rulebase, it aggregates all the inline-layers of the rulebase to be
-     * handled later.
+     * While handling the rules of the given rulebase, it schedules the inline-layers of the rulebase as soon as they
+     * are found, and aggregates them for the links of the html page.
      *
+     * @param layerContext the export context of the layer
      * @param rulebase the rulebases that will added to the collection
      * @param types supported rule types
      * @param rulebaseType Type of the rulebase
      *
      * @return Set of the inline-layers
      */
-    private static Set<Layer> addRulebase(JSONArray rulebase, String[] types, RulebaseType rulebaseType){
+    private static Set<Layer> addRulebase(LayerExportContext layerContext, JSONArray rulebase, String[] types, RulebaseType rulebaseType){
+
+        final PackageExportContext context = layerContext.getPackage();
 
         Set<Layer> inlineLayers = new HashSet<>();
 
+        //The inline layers of the page are resolved together, before the rules are handled
+        Map<String, Layer> pageInlineLayers = Collections.emptyMap();
+        if (rulebaseType == RulebaseType.ACCESS) {
+            pageInlineLayers = resolveInlineLayers(context.getDomain(), collectInlineLayerUids(rulebase));
+        }
+
         for (Object ruleObject : rulebase) {
             JSONObject rule = (JSONObject) ruleObject;
 
@@ -1313,58 +2407,185 @@ public class ShowPackageTool {
                 // We remove the section rules here to prevent duplication
                 // The rules are added later following the section (to get a flat view)
                 JSONArray jsonArrayOfRules = (JSONArray) rule.remove("rulebase");
-                writeJsonObjectToFile(rule, configuration.getRulbaseWriter(), true);
+                writeJsonObjectToFile(layerContext, rule);
+
+                if (jsonArrayOfRules != null && jsonArrayOfRules.size() > 0) {
+                    for (Object jsonArrayOfRule : jsonArrayOfRules) {
+                        JSONObject jsonObject = (JSONObject) jsonArrayOfRule;
+                        writeJsonObjectToFile(layerContext, jsonObject);
+                        //Check existence of the inline-layer
+                        if (rulebaseType == RulebaseType.ACCESS && jsonObject.get("inline-layer") != null) {
+                            Layer inlineLayer = pageInlineLayers.get(jsonObject.get("inline-layer").toString());
+                            if (inlineLayer != null && inlineLayers.add(inlineLayer)) {
+                                scheduleInlineLayer(inlineLayer, context);
+                            }
+                        }
+                    }
+                }
+            }
+
+            //Handle Rule or place-holder
+            else if (types[1].equalsIgnoreCase(rule.get("type").toString()) ||
+                    types[2].equalsIgnoreCase(rule.get("type").toString())) {
+
+                writeJsonObjectToFile(layerContext, rule);
+
+                //Check existence of the inline-layer
+                if (rulebaseType == RulebaseType.ACCESS && rule.get("inline-layer") != null) {
+
+                    Layer inlineLayer = pageInlineLayers.get(rule.get("inline-layer").toString());
+                    if (inlineLayer != null && inlineLayers.add(inlineLayer)) {
+                        scheduleInlineLayer(inlineLayer, context);
+                    }
+                }
+            }
+            else {
+                configuration.getLogger().severe("Unsupported type: " + rule.get("type").toString());
+            }
+        }
+
+        return inlineLayers;
+    }
+
+    /**
+     * This function collects the uids of the inline layers which the rules of a given page (and of its sections) point at.
+     *
+     * @param rulebase the rules of the page
+     *
+     * @return the uids of the inline layers
+     */
+    private static Set<String> collectInlineLayerUids(JSONArray rulebase)
+    {
+        Set<String> inlineLayerUids = new LinkedHashSet<>();
+        for (Object ruleObject : rulebase) {
+            JSONObject rule = (JSONObject) ruleObject;
+            if (rule.get("inline-layer") != null) {
+                inlineLayerUids.add(rule.get("inline-layer").toString());
+            }
+            if (rule.get("rulebase") instanceof JSONArray) {
+                inlineLayerUids.addAll(collectInlineLayerUids((JSONArray) rule.get("rulebase")));
+            }
+        }
+        return inlineLayerUids;
+    }
+
+    /**
+     * This function returns the inline layers of the given uids.
+     * The layers are taken from the inline layers cache of the domain, or are built from the objects dictionary of the
+     * rulebase (the dictionary entries are kept in the object store). The unknown layers are resolved together by
+     * show-objects batches, a layer which isn't returned by show-objects is resolved by show-access-layer.
+     *
+     * @param domain the export context of the domain
+     * @param inlineLayerUids the uids of the inline layers
+     *
+     * @return the inline layers by their uids (a layer which can't be resolved is missing)
+     */
+    private static Map<String, Layer> resolveInlineLayers(DomainExportContext domain, Set<String> inlineLayerUids)
+    {
+        final Map<String, Layer> inlineLayerCache = domain.getInlineLayerCache();
+        Set<String> unknownUids = new LinkedHashSet<>();
+        for (String uid : inlineLayerUids) {
+            if (inlineLayerCache.containsKey(uid)) {
+                continue;
+            }
+            //The objects dictionary of the rulebase already contains the inline layers which its rules point at
+            JSONObject layerInfo = domain.getObjectStore().get(uid);
+            if (isLayerInfo(layerInfo)) {
+                inlineLayerCache.put(uid, createNewLayer(layerInfo));
+            }
+            else {
+                unknownUids.add(uid);
+            }
+        }
 
-                if (jsonArrayOfRules != null && jsonArrayOfRules.size() > 0) {
-                    for (Object jsonArrayOfRule : jsonArrayOfRules) {
-                        JSONObject jsonObject = (JSONObject) jsonArrayOfRule;
-                        writeJsonObjectToFile(jsonObject, configuration.getRulbaseWriter(), true);
-                        //Check existence of the inline-layer
-                        if (rulebaseType == RulebaseType.ACCESS && jsonObject.get("inline-layer") != null) {
-                            Layer inlineLayer = createInlineLayer(jsonObject.get("inline-layer").toString());
-                            if (inlineLayer != null) {
-                                inlineLayers.add(inlineLayer);
+        if (!unknownUids.isEmpty()) {
+            configuration.getLogger().debug("Resolving " + unknownUids.size() + " inline layer(s) with show-objects");
+            final int limit = configuration.getObjectsBatchLimit().get();
+            Iterator<String> uidsIterator = unknownUids.iterator();
+            while (uidsIterator.hasNext()) {
+                JSONArray objectsFilter = new JSONArray();
+                objectsFilter.add("objId");
+                while (uidsIterator.hasNext() && objectsFilter.size() <= limit) {
+                    objectsFilter.add(uidsIterator.next());
+                }
+
+                JSONObject payload = new JSONObject();
+                payload.put("limit", limit);
+                payload.put("details-level", "full");
+                payload.put("in", objectsFilter);
+                try {
+                    ApiResponse res = cachedApiCall(domain, "show-objects", payload);
+                    if (res != null && res.isSuccess() && res.getPayload().get("objects") instanceof JSONArray) {
+                        for (Object object : (JSONArray) res.getPayload().get("objects")) {
+                            JSONObject layerInfo = (JSONObject) object;
+                            if (isLayerInfo(layerInfo)) {
+                                inlineLayerCache.put(layerInfo.get("uid").toString(), createNewLayer(layerInfo));
                             }
                         }
                     }
                 }
+                catch (ApiClientException e) {
+                    configuration.getLogger().debug("Failed to run show-objects for the inline layers: " + e.getMessage());
+                }
             }
 
-            //Handle Rule or place-holder
-            else if (types[1].equalsIgnoreCase(rule.get("type").toString()) ||
-                    types[2].equalsIgnoreCase(rule.get("type").toString())) {
-
-                writeJsonObjectToFile(rule, configuration.getRulbaseWriter(), true);
-
-                //Check existence of the inline-layer
-                if (rulebaseType == RulebaseType.ACCESS && rule.get("inline-layer") != null) {
-
-                    Layer inlineLayer = createInlineLayer(rule.get("inline-layer").toString());
-                    if (inlineLayer != null) {
-                        inlineLayers.add(inlineLayer);
-                    }
+            //The layers which weren't returned (e.g. an older server) are resolved one by one
+            for (String uid : unknownUids) {
+                if (!inlineLayerCache.containsKey(uid)) {
+                    createInlineLayer(domain, uid);
                 }
             }
-            else {
-                configuration.getLogger().severe("Unsupported type: " + rule.get("type").toString());
-            }
         }
 
+        Map<String, Layer> inlineLayers = new HashMap<>();
+        for (String uid : inlineLayerUids) {
+            Layer inlineLayer = inlineLayerCache.get(uid);
+            if (inlineLayer != null) {
+                inlineLayers.put(uid, inlineLayer);
+            }
+        }
         return inlineLayers;
     }
 
     /**
-     * Creates Inline Layer
+     * This function checks whether a given object holds all the information that a {@link Layer} is built from
+     * (name, uid, domain and domain type), as required by createNewLayer.
+     *
+     * @param layerInfo the object (e.g. an entry of the objects dictionary)
+     *
+     * @return True if the layer can be built from the object
+     */
+    private static boolean isLayerInfo(JSONObject layerInfo)
+    {
+        if (layerInfo == null || !"access-layer".equals(layerInfo.get("type"))
+                || layerInfo.get("name") == null || layerInfo.get("uid") == null
+                || !(layerInfo.get("domain") instanceof JSONObject)) {
+            return false;
+        }
+        JSONObject layerDomain = (JSONObject) layerInfo.get("domain");
+        return layerDomain.get("name") != null && layerDomain.get("domain-type") != null;
+    }
+
+    /**
+     * Creates Inline Layer, the layer is taken from (and added to) the inline layers cache of the domain
+     * @param domain the export context of the domain
      * @param inlineLayerUid Inline layer UID
      *
      * @return Created inline layer
      */
-    private static Layer createInlineLayer(String inlineLayerUid)
+    private static Layer createInlineLayer(DomainExportContext domain, String inlineLayerUid)
     {
         ApiResponse res;
 
+        Layer cachedLayer = domain.getInlineLayerCache().get(inlineLayerUid);
+        if (cachedLayer != null) {
+            return cachedLayer;
+        }
+
+        JSONObject payload = new JSONObject();
+        payload.put("uid", inlineLayerUid);
         try {
-            res = client.apiCall(loginResponse, "show-access-layer", "{\"uid\": \"" + inlineLayerUid + "\"}");
+            res = cachedApiCall(domain, "show-access-layer", payload);
         }
         catch (ApiClientException e) {
             handleException(e, "Failed to run show-access-layer UID: ('" + inlineLayerUid + "')");
@@ -1378,47 +2599,157 @@ public class ShowPackageTool {
             return null;
         }
 
-        return createNewLayer(res.getPayload());
+        Layer inlineLayer = createNewLayer(res.getPayload());
+        domain.getInlineLayerCache().put(inlineLayerUid, inlineLayer);
+        return inlineLayer;
+    }
+
+    /**
+     * This function compacts the rules and the objects of a given page, as soon as the page is received (on the thread
+     * that received it). Every rule and every object is kept serialized, with only the fields which are needed in order
+     * to stitch the pages, find the inline layers and dereference the nested objects. The serialized form is written
+     * to the output as is, so the pages which wait in the pipeline and the object store take a fraction of the memory.
+     * The sections are merged with the same section of the next page, so only their rules are compacted.
+     *
+     * @param page the payload of the response (a rulebase page or a show-objects page)
+     */
+    private static void compactPage(JSONObject page)
+    {
+        if (page == null) {
+            return;
+        }
+        compactRules(page.get("rulebase"));
+        compactObjects(page.get("objects-dictionary"));
+        compactObjects(page.get("objects"));
+    }
+
+    private static void compactRules(Object rulebaseObject)
+    {
+        if (!(rulebaseObject instanceof JSONArray)) {
+            return;
+        }
+        JSONArray rulebase = (JSONArray) rulebaseObject;
+        for (int i = 0; i < rulebase.size(); i++) {
+            if (!(rulebase.get(i) instanceof JSONObject) || rulebase.get(i) instanceof CompactJsonObject) {
+                continue;
+            }
+            JSONObject rule = (JSONObject) rulebase.get(i);
+            if (rule.get("rulebase") instanceof JSONArray) {
+                compactRules(rule.get("rulebase"));
+                continue;
+            }
+            Map<String, Object> fields = new HashMap<>();
+            for (String field : RULE_FIELDS_KEPT_IN_MEMORY) {
+                if (rule.containsKey(field)) {
+                    fields.put(field, rule.get(field));
+                }
+            }
+            rulebase.set(i, new CompactJsonObject(rule.toJSONString(), fields));
+        }
+    }
+
+    private static void compactObjects(Object objectsObject)
+    {
+        if (!(objectsObject instanceof JSONArray)) {
+            return;
+        }
+        JSONArray objects = (JSONArray) objectsObject;
+        for (int i = 0; i < objects.size(); i++) {
+            if (objects.get(i) instanceof JSONObject) {
+                objects.set(i, compactObject((JSONObject) objects.get(i)));
+            }
+        }
+    }
+
+    /**
+     * This function creates the compact form of a given object, which keeps only the fields that identify the
+     * object and the uids of its nested objects.
+     *
+     * @param object the object
+     *
+     * @return the compact object
+     */
+    private static JSONObject compactObject(JSONObject object)
+    {
+        if (object instanceof CompactJsonObject) {
+            return object;
+        }
+        Map<String, Object> fields = new HashMap<>();
+        for (String field : OBJECT_FIELDS_KEPT_IN_MEMORY) {
+            if (object.containsKey(field)) {
+                fields.put(field, object.get(field));
+            }
+        }
+        for (String field : COLLECTION_FIELDS_CONTAINING_NESTED_OBJECTS) {
+            if (object.get(field) instanceof JSONArray) {
+                JSONArray nestedUids = new JSONArray();
+                for (Object member : (JSONArray) object.get(field)) {
+                    nestedUids.add(member instanceof JSONObject ? ((JSONObject) member).get("uid") : member);
+                }
+                fields.put(field, nestedUids);
+            }
+        }
+        for (String field : OBJECT_FIELDS_CONTAINING_NESTED_OBJECTS) {
+            Object nestedObject = object.get(field);
+            if (nestedObject != null) {
+                fields.put(field, nestedObject instanceof JSONObject ? ((JSONObject) nestedObject).get("uid") : nestedObject);
+            }
+        }
+        return new CompactJsonObject(object.toJSONString(), fields);
     }
 
     /**
      * This function adds <uid,name> of the given objects to the collection, and adds the objects to the objects collection.
      *
+     * @param context the export context of the package
      * @param objects the objects that will added to the collection
      */
-    private static void addObjectsInfoIntoCollections(JSONArray objects)
+    private static void addObjectsInfoIntoCollections(PackageExportContext context, JSONArray objects)
     {
         if (objects == null) {
             return;
         }
 
-        for (Object o : objects) {
-            addObjectInformationIntoCollections((JSONObject) o);
+        //The inline layers of the package add their objects at the same time
+        synchronized (context) {
+            for (Object o : objects) {
+                addObjectInformationIntoCollections(context, (JSONObject) o);
+            }
         }
     }
 
     /**
-     * This function adds <uid,name> of a given object to the collection, and adds the object to the objects File.
+     * This function adds <uid,name> of a given object to the collection of the package, and adds the object to the
+     * object store (which is shared by all the packages). The objects file is written from the store at the end of
+     * the package.
      *
+     * @param context the export context of the package
      * @param object the object that will be added
      */
-    private static void addObjectInformationIntoCollections(JSONObject object){
+    private static void addObjectInformationIntoCollections(PackageExportContext context, JSONObject object){
+
+        //The inline layers of the package add their objects at the same time
+        synchronized (context) {
+            final Map<String, String> uidToName = context.getUidToName();
+
+            String uid = object.get("uid").toString();
+            if (!uidToName.containsKey(uid)) {
+                //If the object doesn't already exist in the collection
+                JSONObject storedObject = context.getDomain().getObjectStore().get(uid);
+                if (storedObject == null) {
+                    context.getDomain().getObjectStore().put(uid, object);
+                    storedObject = object;
+                }
 
-        final Map<String, String> uidToName = configuration.getUidToName();
+                String name = "";
+                if(storedObject.containsKey("name") && storedObject.get("name") != null ){
+                    name = storedObject.get("name").toString();
+                }
+                uidToName.put(uid, name);
 
-        String uid = object.get("uid").toString();
-        if (!uidToName.containsKey(uid)) {
-            //If the object doesn't already exist in the collection
-            String name = "";
-            if(object.containsKey("name") && object.get("name") != null ){
-                name = object.get("name").toString();
+                addNestedObjectsFromCollections(context, storedObject);
+                addOtherNestedObjects(context, storedObject);
             }
-            uidToName.put(uid, name);
-
-            addNestedObjectsFromCollections(object);
-            addOtherNestedObjects(object);
-
-            writeJsonObjectToFile(object, configuration.getObjectsWriter(), false);
         }
     }
 
@@ -1426,15 +2757,16 @@ public class ShowPackageTool {
      * If the input object has fields that contain nested objects, adds them
      * to the objects to dereference queue.
      *
+     * @param context the export context of the package
      * @param object the object contains nested objects
      */
-    private static void addOtherNestedObjects(JSONObject object)
+    private static void addOtherNestedObjects(PackageExportContext context, JSONObject object)
     {
         for (String field : OBJECT_FIELDS_CONTAINING_NESTED_OBJECTS) {
             Object fieldWithNestedObjects = object.get(field);
 
             if (fieldWithNestedObjects != null) {
-                addNestedObjectToQueue(fieldWithNestedObjects);
+                addNestedObjectToQueue(context, fieldWithNestedObjects);
             }
         }
     }
@@ -1443,9 +2775,10 @@ public class ShowPackageTool {
      * If the input object has collections that contain nested objects, adds them
      * to the objects to dereference queue.
      *
+     * @param context the export context of the package
      * @param object the object contains nested objects
      */
-    private static void addNestedObjectsFromCollections(JSONObject object)
+    private static void addNestedObjectsFromCollections(PackageExportContext context, JSONObject object)
     {
         for (String field : COLLECTION_FIELDS_CONTAINING_NESTED_OBJECTS) {
             Object fieldContainMembers = object.get(field);
@@ -1454,7 +2787,7 @@ public class ShowPackageTool {
                 JSONArray members = (JSONArray) fieldContainMembers;
 
                 for (Object member : members) {
-                    addNestedObjectToQueue(member);
+                    addNestedObjectToQueue(context, member);
                 }
             }
         }
@@ -1463,58 +2796,43 @@ public class ShowPackageTool {
 
     /**
      * This function add specific nested object to the objects to dereference queue.
+     * An object which was already retrieved for another package is taken from the object store instead.
      *
+     * @param context the export context of the package
      * @param nestedObject the object contains nested objects
      */
-    private static void addNestedObjectToQueue(Object nestedObject)
+    private static void addNestedObjectToQueue(PackageExportContext context, Object nestedObject)
     {
         // Input nestedObject could be a JsonObject or a UID string
         if (nestedObject instanceof JSONObject) {
             nestedObject = ((JSONObject) nestedObject).get("uid");
         }
 
-        if ((nestedObject instanceof String) && !(configuration.getUidToName().containsKey(nestedObject))) {
-            configuration.getNestedObjectsToRetrieve().offer((String) nestedObject);
+        if ((nestedObject instanceof String) && !(context.getUidToName().containsKey(nestedObject))) {
+            JSONObject storedObject = context.getDomain().getObjectStore().get(nestedObject);
+            if (storedObject != null) {
+                addObjectInformationIntoCollections(context, storedObject);
+                return;
+            }
+        }
+
+        // Objects which were already retrieved, are waiting in the queue or are being retrieved are skipped
+        if ((nestedObject instanceof String) && !(context.getUidToName().containsKey(nestedObject))
+                && context.getRequestedNestedObjects().add((String) nestedObject)) {
+            context.getNestedObjectsToRetrieve().offer((String) nestedObject);
         }
     }
 
     /**
-     * This function writes the given json object to a given file
+     * This function writes the given rule to the rulebase file of a layer
+     * @param layerContext the export context of the layer
      * @param object the json object need to be written to the file
-     * @param fileWriter the file that the json object need to be written to
-     * @param rulbase true if the file is rulebases file
      * @return true on success, otherwise false
      */
-    private static boolean writeJsonObjectToFile(JSONObject object, RandomAccessFile fileWriter, boolean rulbase){
-
-        if (!rulbase) {
-            String type;
-            if (object.containsKey(TYPE)) {
-                type = (object).get(TYPE).toString();
-            }
-            else {
-                //type field doesn't exist in the object, define the type as "undefined"
-                type = UNDEFINED;
-            }
-            if (allTypes == null) {
-                allTypes = new JSONObject();
-            }
-            if (allTypes.containsKey(type)) {//type already exists, add one to the counter
-                int count = Integer.parseInt(allTypes.get(type).toString());
-                count++;
-                allTypes.put(type, count);
-            }
-            else {
-                allTypes.put(type, 1);
-            }
-        }
+    private static boolean writeJsonObjectToFile(LayerExportContext layerContext, JSONObject object){
 
         try {
-            if (fileWriter.getFilePointer() > 1) {
-                fileWriter.writeBytes(",");
-            }
-            byte[] bytes = object.toJSONString().getBytes("UTF-8");
-            fileWriter.write(bytes);
+            layerContext.writeRule(object);
         }
         catch (IOException e) {
             return false;
@@ -1527,11 +2845,12 @@ public class ShowPackageTool {
     /**
      * This function creates a new {@link GatewayAndServer} object according to the given information.
      *
+     * @param domain the export context of the domain
      * @param gatewayAndServerInfo the information for the new gateway
      *
      * @return The new object
      */
-    private static GatewayAndServer buildNewGatewayOrServer(JSONObject gatewayAndServerInfo){
+    private static GatewayAndServer buildNewGatewayOrServer(DomainExportContext domain, JSONObject gatewayAndServerInfo){
 
         GatewayAndServer gatewayAndServer = new GatewayAndServer();
 
@@ -1543,7 +2862,7 @@ public class ShowPackageTool {
 
         //Update the policy
         JSONObject policy = (JSONObject) gatewayAndServerInfo.get("policy");
-        setGatewayAndServerPolicy(gatewayAndServer, policy);
+        setGatewayAndServerPolicy(domain, gatewayAndServer, policy);
 
         return gatewayAndServer;
 
@@ -1553,10 +2872,11 @@ public class ShowPackageTool {
      * This function sets the access and threat policy of a given gateway if it exists, and adds the package of the policy
      * to the installed packages list.
      *
+     * @param domain the export context of the domain
      * @param gatewayAndServer the gateway object whose policy is to be set
      * @param policy the policy that is installed on the gateway
      */
-    private static void setGatewayAndServerPolicy(GatewayAndServer gatewayAndServer, JSONObject policy) {
+    private static void setGatewayAndServerPolicy(DomainExportContext domain, GatewayAndServer gatewayAndServer, JSONObject policy) {
 
         boolean needToAddToRelevantPackages = true;
         String userRequestedGateway = configuration.getUserRequestGateway();
@@ -1577,8 +2897,8 @@ public class ShowPackageTool {
             String accessPoliceName = policy.get("access-policy-name").toString();
             gatewayAndServer.setAccessPolicy(accessPoliceName);
 
-            if(needToAddToRelevantPackages && !configuration.getInstalledPackages().contains(accessPoliceName)) {
-                configuration.getInstalledPackages().add(accessPoliceName);
+            if(needToAddToRelevantPackages && !domain.getInstalledPackages().contains(accessPoliceName)) {
+                domain.getInstalledPackages().add(accessPoliceName);
             }
         }
 
@@ -1589,21 +2909,22 @@ public class ShowPackageTool {
             String threatPoliceName = policy.get("threat-policy-name").toString();
             gatewayAndServer.setThreatPolicy(threatPoliceName);
 
-            if(needToAddToRelevantPackages && !configuration.getInstalledPackages().contains(threatPoliceName) ) {
-                configuration.getInstalledPackages().add(threatPoliceName);
+            if(needToAddToRelevantPackages && !domain.getInstalledPackages().contains(threatPoliceName) ) {
+                domain.getInstalledPackages().add(threatPoliceName);
             }
         }
     }
 
     /**
-     * This function creates the index page according to the parameters that appear in the given index object.
+     * This function creates the index page according to the parameters that appear in the index object of a given domain.
      *
-     * @param index {@link IndexView}
+     * @param domain the export context of the domain, holding the {@link IndexView}
      */
-    private static void buildIndexHtmlPage(IndexView index) {
+    private static void buildIndexHtmlPage(DomainExportContext domain) {
 
         try {
-            if (!configuration.getHtmlUtils().writeIndexHTML(index.toJson().toString())) {
+            if (!configuration.getHtmlUtils().writeIndexHTML(domain.getOutputFolderPath(),
+                                                             domain.getIndex().toJson().toString())) {
                 configuration.getLogger().severe("Failed to create a HTML file for index");
             }
         }
@@ -1616,17 +2937,57 @@ public class ShowPackageTool {
     }
 
     /**
-     * This function creates the tar file.
-     * @param tarPath The temp directory path
-     * @param directoryPath The tar file path
+     * This function creates the main index page of a multi-domain export, which links to the index pages of the domains.
+     *
+     * @param domainsInfo the name, the folder, the status and the packages of every domain
+     */
+    private static void buildDomainsIndexHtmlPage(JSONArray domainsInfo) {
+
+        JSONObject domainsIndex = new JSONObject();
+        domainsIndex.put("server", configuration.getServer());
+        domainsIndex.put("domains", domainsInfo);
+        try {
+            if (!configuration.getHtmlUtils().writeDomainsIndexHTML(
+                    configuration.getDirectoryPath() + System.getProperty("file.separator"), domainsIndex.toJSONString())) {
+                configuration.getLogger().severe("Failed to create a HTML file for the domains index");
+            }
+        }
+        catch (FileNotFoundException e) {
+            handleException(e, "File not found. failed to create a HTML file for the domains index");
+        }
+        catch (UnsupportedEncodingException e) {
+            handleException(e, "Unsupported encoding. failed to create a HTML file for the domains index");
+        }
+    }
+
+    /**
+     * This function completes the archive file: the files which weren't added while the export was running (e.g. the
+     * log file) are added, and the temp directory is deleted.
+     * When the output format doesn't have an archive file, the result folder is kept as is.
+     * @param tarPath The archive file path
+     * @param directoryPath The temp directory path
      */
     private static void createTarFile(String tarPath, String directoryPath){
+        if (!configuration.getOutputFormat().isArchive()) {
+            System.out.println("Result folder location: " + directoryPath);
+            return;
+        }
+        ArchiveSink archiveSink = configuration.getArchiveSink();
         try {
-            TarGZUtils.createTarGZ(directoryPath, tarPath, configuration.isDeleteTempFile());
+            //The archive is finished before the result folder is deleted
+            try {
+                archiveSink.addRemainingFiles();
+            }
+            finally {
+                archiveSink.close();
+            }
+            if (configuration.isDeleteTempFile()) {
+                TarGZUtils.deleteTempFolder(directoryPath);
+            }
             System.out.println("Result file location: " + tarPath);
         }
         catch (IOException e) {
-            handleException(e,"failed to create TarGZ file");
+            handleException(e,"failed to create " + configuration.getOutputFormat().getName() + " file");
         }
     }
 
@@ -1711,29 +3072,15 @@ public class ShowPackageTool {
     private static void logoutReportAndExit(String message, MessageType messageType, boolean createTarFile) {
 
         int exitCode = MyLogger.SUCCESS_CODE;
-        if(loginResponse != null) {
-            try {
-                client.exit(loginResponse);
-            }
-            catch (ApiClientException e) {
-                configuration.getLogger().severe("Failed to login/logout. Exception: " + e.getMessage());
-            }
+        List<DomainExportContext> domainsToLogout;
+        synchronized (loggedInDomains) {
+            domainsToLogout = new ArrayList<>(loggedInDomains);
+        }
+        for (DomainExportContext domain : domainsToLogout) {
+            logout(domain);
         }
         if(configuration != null) {
-            if (message != null && !message.isEmpty()) {
-                //Write severe message to the log file
-                switch (messageType) {
-                    case SEVERE:
-                        configuration.getLogger().severe(message);
-                        break;
-                    case WARNING:
-                        configuration.getLogger().warning(message);
-                        break;
-                    case INFO:
-                        configuration.getLogger().info(message);
-                        break;
-                }
-            }
+            writeMessageToLogger(message, messageType);
             exitCode = configuration.getLogger().getMostSevereLevel();
             if (exitCode == MyLogger.SUCCESS_CODE){
                 System.out.println("Script finished running successfully!");
@@ -1749,13 +3096,13 @@ public class ShowPackageTool {
             }
 
 
-            String tarPath = configuration.getTarGzPath();
+            String tarPath = configuration.getArchivePath();
             String directoryPath = configuration.getDirectoryPath();
 
 
             if(createTarFile) {
                 configuration.getLogger().info("dirPath: " + directoryPath);
-                configuration.getLogger().info("tarGzPath: " + tarPath);
+                configuration.getLogger().info("archivePath: " + tarPath);
             }
 
             freeResources();
@@ -1782,149 +3129,366 @@ public class ShowPackageTool {
         logoutReportAndExit(message, messageType, true);
     }
 
+    /**
+     * This function writes a given message into the log file according to its type.
+     *
+     * @param message to be written to the log file.
+     * @param messageType the type of the message (SEVERE/WARNING/INFO/EXIT WITHOUT MESSAGE)
+     */
+    private static void writeMessageToLogger(String message, MessageType messageType) {
+
+        if (message != null && !message.isEmpty()) {
+            //Write severe message to the log file
+            switch (messageType) {
+                case SEVERE:
+                    configuration.getLogger().severe(message);
+                    break;
+                case WARNING:
+                    configuration.getLogger().warning(message);
+                    break;
+                case INFO:
+                    configuration.getLogger().info(message);
+                    break;
+            }
+        }
+    }
+
     /**
      * This function frees the logger's handlers and deletes the temp file
      */
     private static void freeResources(){
 
+        configuration.shutdownFetchExecutor();
         configuration.closeAndDeleteFile();
+        String previousExportFolderPath = configuration.getPreviousExportFolderPath();
+        if (previousExportFolderPath != null && new File(previousExportFolderPath).isDirectory()) {
+            TarGZUtils.deleteTempFolder(previousExportFolderPath);
+        }
         //Free resources
         for (Handler handle : configuration.getLogger().getHandlers()) {
             handle.close();
         }
     }
 
+    private static class ShowObjectsTask implements Callable<ShowObjectsTask> {
+
+        private final DomainExportContext domain;
+        private final Set<String> uids;
+        private final int limit;
+        private ApiResponse response;
+        private ApiClientException exception;
+        private long elapsedMillis;
+
+        ShowObjectsTask(DomainExportContext domain, Set<String> uids, int limit)
+        {
+            this.domain = domain;
+            this.uids = uids;
+            this.limit = limit;
+        }
+
+        @Override
+        public ShowObjectsTask call()
+        {
+            JSONObject payload = new JSONObject();
+
+            payload.put("limit", limit);
+            payload.put("details-level", "full");
+
+            addNewFlagsToControlDetailsLevel(payload);
+
+            final JSONArray objectsFilter = new JSONArray();
+            objectsFilter.add("objId");
+            objectsFilter.addAll(uids);
+
+            payload.put("in", objectsFilter);
+
+            final long start = System.currentTimeMillis();
+            try {
+                response = client.apiCall(domain.getLoginResponse(), "show-objects", payload);
+            }
+            catch (ApiClientException e) {
+                exception = e;
+            }
+            elapsedMillis = System.currentTimeMillis() - start;
+
+            if (response != null && response.isSuccess()) {
+                compactPage(response.getPayload());
+            }
+            return this;
+        }
+
+        Set<String> getUids()
+        {
+            return uids;
+        }
+
+        int getLimit()
+        {
+            return limit;
+        }
+
+        long getElapsedMillis()
+        {
+            return elapsedMillis;
+        }
+
+        ApiResponse getResponse()
+        {
+            return response;
+        }
+
+        ApiClientException getException()
+        {
+            return exception;
+        }
+    }
+
+    private static class ThreatExceptionTask implements Callable<JSONObject> {
+
+        private final DomainExportContext domain;
+        private final Layer threatLayer;
+        private final String ruleUid;
+
+        ThreatExceptionTask(DomainExportContext domain, Layer threatLayer, String ruleUid)
+        {
+            this.domain = domain;
+            this.threatLayer = threatLayer;
+            this.ruleUid = ruleUid;
+        }
+
+        @Override
+        public JSONObject call()
+        {
+            return showThreatExceptionRulebase(domain, threatLayer, ruleUid);
+        }
+    }
+
     private static class ApiCallTask implements Callable<ApiResponse> {
 
-        private JSONObject payload;
-        private String command;
+        private final DomainExportContext domain;
+        private final JSONObject payload;
+        private final String command;
+        private final AdaptiveLimit pageLimit;
 
-        ApiCallTask(String command, JSONObject payload)
+        ApiCallTask(DomainExportContext domain, String command, JSONObject payload, AdaptiveLimit pageLimit)
         {
+            this.domain = domain;
             this.payload = payload;
             this.command = command;
+            this.pageLimit = pageLimit;
         }
 
         @Override
         public ApiResponse call()
         {
             ApiResponse res = null;
+            int offset = Integer.parseInt(payload.get("offset").toString());
+            int limit = Integer.parseInt(payload.get("limit").toString());
+
+            // A cached page isn't a measurement of the server, so the page limit isn't updated by it
+            res = getCachedResponse(domain, command, payload);
+            if (res != null) {
+                configuration.getLogger().debug("Command [" + command + "] uid " + payload.get("uid") + " limit "
+                        + limit + " offset " + offset + " taken from the cache");
+                compactPage(res.getPayload());
+                return res;
+            }
 
+            final long start = System.currentTimeMillis();
             try {
-                res = client.apiCall(loginResponse, command, payload);
+                res = client.apiCall(domain.getLoginResponse(), command, payload);
             }
             catch (Exception e) {
                 res = null;
             }
+            final long elapsedMillis = System.currentTimeMillis() - start;
 
             if (res == null || !res.isSuccess()) {
-            	// Save old offset + limit to write correct log
-            	int offset = Integer.parseInt(payload.get("offset").toString());
-            	int limit = Integer.parseInt(payload.get("limit").toString());
-
-                res = binarySplitCall(payload, offset, limit, true);
-
-                // Restore saved offset + limit
-                payload.put("offset", offset);
-                payload.put("limit", limit);
+                pageLimit.onFailure(limit);
+                // A page which was split isn't cached, only a page which was received as a whole is
+                res = binarySplitCall(offset, limit);
+            }
+            else {
+                pageLimit.onSuccess(limit, countReceivedObjects(res.getPayload(), limit), elapsedMillis);
+                cacheResponse(domain, command, payload, res);
+            }
+            if (res != null && res.isSuccess()) {
+                compactPage(res.getPayload());
             }
 
-            String log = "Command [" + command + "] uid " + payload.get("uid") + " limit " + payload.get("limit") + " offset " + payload.get("offset") + " ";
+            String log = "Command [" + command + "] uid " + payload.get("uid") + " limit " + limit + " offset " + offset
+                    + " took " + elapsedMillis + "ms ";
             configuration.getLogger().debug(log + (res == null ? "FAILED" : "SUCCESSFUL"));
 
             return res;
         }
 
-        private ApiResponse binarySplitCall(JSONObject payload, int offset, int limit, boolean initial)
+        /**
+         * The size of a page is measured by the number of rules and the number of objects in its dictionary.
+         */
+        private int countReceivedObjects(JSONObject page, int limit)
+        {
+            int received = limit;
+            try {
+                received = Integer.parseInt(page.get("to").toString()) - Integer.parseInt(page.get("from").toString()) + 1;
+            }
+            catch (Exception e) {
+                // Ignore errors, assume a full page
+            }
+            Object objectsDictionary = page.get("objects-dictionary");
+            if (objectsDictionary instanceof JSONArray) {
+                received += ((JSONArray) objectsDictionary).size();
+            }
+            return received;
+        }
+
+        /**
+         * Run the call again with the given offset and limit, and split it again in case it fails.
+         */
+        private ApiResponse splitCall(int offset, int limit)
         {
-        	ApiResponse res = null;
+            ApiResponse res;
 
-        	payload.put("offset", offset);
-        	payload.put("limit", limit);
+            JSONObject splitPayload = new JSONObject(payload);
+            splitPayload.put("offset", offset);
+            splitPayload.put("limit", limit);
 
-            // Avoid calling if call came from "call"
-            if (!initial) {
-                String log = "binarySplitCall - Command [" + command + "] uid " + payload.get("uid") + " limit " + payload.get("limit") + " offset " + payload.get("offset") + " ";
-                configuration.getLogger().debug(log);
+            String log = "binarySplitCall - Command [" + command + "] uid " + payload.get("uid") + " limit " + limit + " offset " + offset + " ";
+            configuration.getLogger().debug(log);
 
-            	try {
-            		res = client.apiCall(loginResponse, command, payload);
-            	} 
-            	catch (Exception e) {
-            		res = null;
-            	}
+            try {
+                res = client.apiCall(domain.getLoginResponse(), command, splitPayload);
+            }
+            catch (Exception e) {
+                res = null;
             }
-            
-            if (res == null || !res.isSuccess()) {
 
-            	// No need to retry a failed limit = 1 call. 
-            	if (limit > 1) {
-
-	            	int lower_offset = offset;
-	            	int lower_limit = (limit / 2 > 0) ? (limit / 2) : 1;
-	            	int upper_offset = offset + lower_limit;
-	            	int upper_limit = limit - lower_limit;
-
-                	JSONObject j1 = new JSONObject();
-                	JSONObject j2 = new JSONObject();
-	            	
-	                try {
-	                	ApiResponse r1 = binarySplitCall(payload, lower_offset, lower_limit, false);
-	                	if (r1.isSuccess()) {
-	                		j1 = r1.getPayload();
-	                	}
-	                } catch (Exception e) {
-
-	                }
-	                
-	                try {
-	                	ApiResponse r2 = binarySplitCall(payload, upper_offset, upper_limit, false);
-	                	if (r2.isSuccess()) {
-	                		j2 = r2.getPayload();
-	                	}
-	                } catch (Exception e) {
-
-	                }
-
-	                // Update "to" based on information from 2nd (upper) JSON object 
-	                try {
-	                	int to = Integer.parseInt(j2.get("to").toString());
-	                	j1.put("to", to);
-	                } catch (Exception e) {
-	                	// Ignore errors
-	                }
-
-	                // Append objects-dictionary
-	                try {
-		                JSONArray od1 = (JSONArray) j1.get("objects-dictionary");
-		                JSONArray od2 = (JSONArray) j2.get("objects-dictionary");
-		                od1.addAll(od2);
-		                j1.put("objects-dictionary", od1);
-		                String log = "binarySplitCall - Command [" + command + "] uid " + payload.get("uid") + " limit " + payload.get("limit") + " offset " + payload.get("offset") + " - merged objects-dictionary";
-		                configuration.getLogger().debug(log);
-		                
-	                } catch (Exception e) {
-	                	// Ignore errors
-	                }  
-
-	                // Append rulebase
-	                try {
-	                	JSONArray rb1 = (JSONArray) j1.get("rulebase");
-		                JSONArray rb2 = (JSONArray) j2.get("rulebase");
-                		rb1.addAll(rb2);
-                		j1.put("rulebase", rb1);
-		                String log = "binarySplitCall - Command [" + command + "] uid " + payload.get("uid") + " limit " + payload.get("limit") + " offset " + payload.get("offset") + " - merged rulebase";
-		                configuration.getLogger().debug(log);
-
-	                } catch (Exception e) {
-	                	// Ignore errors
-	                }  
-
-	                return new ApiResponse(200,j1);
-            	}
-                return res;
+            if (res == null || !res.isSuccess()) {
+                return binarySplitCall(offset, limit);
             }
             return res;
         }
+
+        /**
+         * Split a failed call into two halves. The lower half runs on the current thread while the upper half runs
+         * on the fetch executor. If the upper half didn't start by the time the lower half is done, it runs on the
+         * current thread as well (so a thread of the executor never waits for a task which is still queued).
+         *
+         * @return the merged response of both halves, or null if the call can't be split or one of the halves failed
+         */
+        private ApiResponse binarySplitCall(int offset, int limit)
+        {
+            // No need to retry a failed limit = 1 call.
+            if (limit <= 1) {
+                return null;
+            }
+
+            final int lowerOffset = offset;
+            final int lowerLimit = limit / 2;
+            final int upperOffset = offset + lowerLimit;
+            final int upperLimit = limit - lowerLimit;
+
+            Future<ApiResponse> upperFuture = null;
+            try {
+                upperFuture = configuration.getFetchExecutor().submit(new Callable<ApiResponse>() {
+                    @Override
+                    public ApiResponse call()
+                    {
+                        return splitCall(upperOffset, upperLimit);
+                    }
+                });
+            }
+            catch (RejectedExecutionException e) {
+                // The executor was shut down, run the upper half on the current thread
+            }
+
+            ApiResponse lower = splitCall(lowerOffset, lowerLimit);
+            if (lower == null) {
+                // The page is incomplete without its lower half, so the upper half isn't needed
+                if (upperFuture != null) {
+                    upperFuture.cancel(false);
+                }
+                return null;
+            }
+
+            ApiResponse upper = null;
+            if (upperFuture == null || upperFuture.cancel(false)) {
+                upper = splitCall(upperOffset, upperLimit);
+            }
+            else {
+                try {
+                    upper = upperFuture.get();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                catch (ExecutionException e) {
+                    // Ignore errors, the upper half failed
+                }
+            }
+            if (upper == null) {
+                configuration.getLogger().debug("binarySplitCall - Command [" + command + "] uid " + payload.get("uid")
+                        + " limit " + limit + " offset " + offset + " - FAILED");
+                return null;
+            }
+
+            JSONObject merged = mergePages(lower, upper);
+            String log = "binarySplitCall - Command [" + command + "] uid " + payload.get("uid") + " limit " + limit + " offset " + offset + " - merged";
+            configuration.getLogger().debug(log);
+
+            return new ApiResponse(200, merged);
+        }
+
+        /**
+         * Merge the pages of two consecutive calls. A section which is split between the pages is merged as well.
+         */
+        private JSONObject mergePages(ApiResponse lower, ApiResponse upper)
+        {
+            JSONObject merged = new JSONObject();
+            JSONArray objectsDictionary = new JSONArray();
+            JSONArray rulebase = new JSONArray();
+
+            for (ApiResponse res : Arrays.asList(lower, upper)) {
+                if (res == null || !res.isSuccess() || res.getPayload() == null) {
+                    continue;
+                }
+                JSONObject page = res.getPayload();
+
+                if (merged.isEmpty()) {
+                    merged.putAll(page);
+                }
+                else if (page.get("to") != null) {
+                    // Update "to" based on information from 2nd (upper) JSON object
+                    merged.put("to", page.get("to"));
+                }
+
+                if (page.get("objects-dictionary") instanceof JSONArray) {
+                    objectsDictionary.addAll((JSONArray) page.get("objects-dictionary"));
+                }
+
+                if (page.get("rulebase") instanceof JSONArray) {
+                    JSONArray pageRulebase = (JSONArray) page.get("rulebase");
+                    if (!rulebase.isEmpty() && !pageRulebase.isEmpty()) {
+                        JSONObject lastAdded = (JSONObject) rulebase.get(rulebase.size() - 1);
+                        JSONObject firstNew = (JSONObject) pageRulebase.get(0);
+
+                        // The same section appears at the end of the lower page and at the start of the upper page
+                        if (lastAdded.get("rulebase") instanceof JSONArray && firstNew.get("rulebase") instanceof JSONArray
+                                && Objects.equals(lastAdded.get("uid"), firstNew.get("uid"))) {
+                            ((JSONArray) lastAdded.get("rulebase")).addAll((JSONArray) firstNew.get("rulebase"));
+                            lastAdded.put("to", firstNew.get("to"));
+                            pageRulebase = new JSONArray();
+                            pageRulebase.addAll(((JSONArray) page.get("rulebase")).subList(1, ((JSONArray) page.get("rulebase")).size()));
+                        }
+                    }
+                    rulebase.addAll(pageRulebase);
+                }
+            }
+
+            merged.put("objects-dictionary", objectsDictionary);
+            merged.put("rulebase", rulebase);
+
+            return merged;
+        }
     }
 }
@@ -35,6 +35,11 @@ public class PolicyPackage
         htmlGatewaysFileName = packageName+"_gateway_objects.html";
     }
 
+    public String getPackageName()
+    {
+        return packageName;
+    }
+
     /**
      *  Add new gateway to the collection
      *
@@ -0,0 +1,129 @@
+package com.checkpoint.mgmt_api.objects;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This class holds the objects and the rules which were changed since a given published session
+ * (as returned by the show-changes command).
+ */
+public class SessionChanges
+{
+    private static final String[] OPERATIONS = {"added-objects", "deleted-objects", "modified-objects"};
+    private static final String[] MODIFIED_OBJECT_VERSIONS = {"old-object", "new-object"};
+
+    private String sinceSessionUid;
+    private Set<String> changedUids = new HashSet<>();
+    private Set<String> changedLayerUids = new HashSet<>();
+    private boolean natChanged = false;
+
+    public SessionChanges(String sinceSessionUid)
+    {
+        this.sinceSessionUid = sinceSessionUid;
+    }
+
+    public String getSinceSessionUid()
+    {
+        return sinceSessionUid;
+    }
+
+    public Set<String> getChangedUids()
+    {
+        return changedUids;
+    }
+
+    /**
+     * @param layerUid the uid of the layer
+     *
+     * @return True if the layer itself or one of its rules was changed
+     */
+    public boolean isLayerChanged(String layerUid)
+    {
+        return layerUid != null && (changedLayerUids.contains(layerUid) || changedUids.contains(layerUid));
+    }
+
+    public boolean isNatChanged()
+    {
+        return natChanged;
+    }
+
+    /**
+     * Add all the changes which appear in a given show-changes (or show-task) response.
+     *
+     * @param response the response
+     */
+    public void addChanges(Object response)
+    {
+        if (response instanceof Map) {
+            for (Object entry : ((Map) response).entrySet()) {
+                Map.Entry mapEntry = (Map.Entry) entry;
+                if (isOperation(mapEntry.getKey()) && mapEntry.getValue() instanceof JSONArray) {
+                    addChangedObjects((JSONArray) mapEntry.getValue());
+                }
+                else {
+                    addChanges(mapEntry.getValue());
+                }
+            }
+        }
+        else if (response instanceof JSONArray) {
+            for (Object item : (JSONArray) response) {
+                addChanges(item);
+            }
+        }
+    }
+
+    private void addChangedObjects(JSONArray objects)
+    {
+        for (Object object : objects) {
+            if (!(object instanceof JSONObject)) {
+                continue;
+            }
+            JSONObject changedObject = (JSONObject) object;
+            boolean modifiedObject = false;
+            for (String version : MODIFIED_OBJECT_VERSIONS) {
+                if (changedObject.get(version) instanceof JSONObject) {
+                    addChangedObject((JSONObject) changedObject.get(version));
+                    modifiedObject = true;
+                }
+            }
+            if (!modifiedObject) {
+                addChangedObject(changedObject);
+            }
+        }
+    }
+
+    private void addChangedObject(JSONObject object)
+    {
+        if (object.get("uid") != null) {
+            changedUids.add(object.get("uid").toString());
+        }
+
+        //A changed rule changes its layer
+        Object layer = object.get("layer");
+        if (layer instanceof JSONObject) {
+            layer = ((JSONObject) layer).get("uid");
+        }
+        if (layer != null) {
+            changedLayerUids.add(layer.toString());
+        }
+
+        Object type = object.get("type");
+        if (type != null && type.toString().startsWith("nat-")) {
+            natChanged = true;
+        }
+    }
+
+    private static boolean isOperation(Object key)
+    {
+        for (String operation : OPERATIONS) {
+            if (operation.equals(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,117 @@
+package com.checkpoint.mgmt_api.utils;
+
+/**
+ * This class chooses the number of objects to request in the next call according to the measured results of the
+ * previous calls.
+ * While the responses are fast and the throughput (objects per second) doesn't get worse, the limit grows.
+ * On errors or slow responses the limit shrinks.
+ * A limit whose minimum equals its maximum is fixed.
+ * The class is thread safe.
+ */
+public class AdaptiveLimit {
+
+    //The throughput may drop by this factor before growing the limit is considered as harmful
+    private static final double THROUGHPUT_TOLERANCE = 0.9;
+
+    private final int minimum;
+    private final int maximum;
+    private final long slowResponseMillis;
+
+    private int current;
+    private double bestThroughput = 0;
+
+    /**
+     * @param initial the first limit
+     * @param minimum the minimum limit
+     * @param maximum the maximum limit
+     * @param slowResponseMillis a response that takes longer than that is slow, the limit is reduced after it
+     */
+    public AdaptiveLimit(int initial, int minimum, int maximum, long slowResponseMillis)
+    {
+        this.minimum = minimum;
+        this.maximum = Math.max(minimum, maximum);
+        this.slowResponseMillis = slowResponseMillis;
+        this.current = bound(initial);
+    }
+
+    /**
+     * Create a limit that never changes.
+     *
+     * @param limit the limit
+     *
+     * @return the fixed limit
+     */
+    public static AdaptiveLimit fixed(int limit)
+    {
+        return new AdaptiveLimit(limit, limit, limit, Long.MAX_VALUE);
+    }
+
+    public boolean isAdaptive()
+    {
+        return minimum != maximum;
+    }
+
+    /**
+     * @return the limit for the next call
+     */
+    public synchronized int get()
+    {
+        return current;
+    }
+
+    /**
+     * Update the limit after a successful call.
+     *
+     * @param requestedLimit the limit that was used in the call
+     * @param receivedObjects the number of objects that were received
+     * @param elapsedMillis the duration of the call
+     */
+    public synchronized void onSuccess(int requestedLimit, int receivedObjects, long elapsedMillis)
+    {
+        if (!isAdaptive()) {
+            return;
+        }
+
+        if (elapsedMillis >= slowResponseMillis) {
+            //Shrink before the calls start to time out
+            current = bound(Math.min(current, requestedLimit / 2));
+            bestThroughput = 0;
+            return;
+        }
+
+        //Results of calls that were sent with an older limit don't tell anything about the current one
+        if (requestedLimit != current) {
+            return;
+        }
+
+        double throughput = receivedObjects * 1000.0 / Math.max(elapsedMillis, 1);
+        if (throughput >= bestThroughput * THROUGHPUT_TOLERANCE) {
+            bestThroughput = Math.max(bestThroughput, throughput);
+            //Grow fast while far from being slow, carefully when getting closer
+            current = bound(elapsedMillis < slowResponseMillis / 4 ? current * 2 : current + current / 4 + 1);
+        }
+        else {
+            //The bigger calls made the throughput worse, step back
+            current = bound(current * 3 / 4);
+        }
+    }
+
+    /**
+     * Update the limit after a failed call.
+     *
+     * @param requestedLimit the limit that was used in the call
+     */
+    public synchronized void onFailure(int requestedLimit)
+    {
+        if (!isAdaptive()) {
+            return;
+        }
+        current = bound(Math.min(current, requestedLimit / 2));
+        bestThroughput = 0;
+    }
+
+    private int bound(int limit)
+    {
+        return Math.max(minimum, Math.min(maximum, limit));
+    }
+}
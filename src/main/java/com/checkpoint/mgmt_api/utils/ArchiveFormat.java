@@ -0,0 +1,184 @@
+package com.checkpoint.mgmt_api.utils;
+
+import com.github.luben.zstd.ZstdInputStream;
+import com.github.luben.zstd.ZstdOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+
+import java.io.*;
+
+/**
+ * This enum holds the formats of the result of the tool.
+ * Every archive format creates its own writer, the 'dir' format keeps the result folder as is (without an archive).
+ */
+public enum ArchiveFormat {
+
+    TAR_GZ("tar.gz") {
+        ArchiveWriter createWriter(OutputStream output, int threads, int compressionLevel)
+        {
+            return new TarArchiveWriter(new ParallelGzipOutputStream(output, threads));
+        }
+
+        InputStream openArchive(InputStream input) throws IOException
+        {
+            //The tar.gz file is written as several gzip members (one for each compressed block)
+            return new GzipCompressorInputStream(input, true);
+        }
+    },
+    TAR_ZST("tar.zst") {
+        ArchiveWriter createWriter(OutputStream output, int threads, int compressionLevel) throws IOException
+        {
+            ZstdOutputStream zstdOutput = new ZstdOutputStream(output, compressionLevel);
+            //A single thread means that the stream is compressed by the writing thread
+            if (threads > 1) {
+                zstdOutput.setWorkers(threads);
+            }
+            return new TarArchiveWriter(zstdOutput);
+        }
+
+        InputStream openArchive(InputStream input) throws IOException
+        {
+            return new ZstdInputStream(input);
+        }
+    },
+    TAR("tar") {
+        ArchiveWriter createWriter(OutputStream output, int threads, int compressionLevel)
+        {
+            return new TarArchiveWriter(output);
+        }
+
+        InputStream openArchive(InputStream input)
+        {
+            return input;
+        }
+    },
+    DIR("dir") {
+        ArchiveWriter createWriter(OutputStream output, int threads, int compressionLevel)
+        {
+            throw new UnsupportedOperationException("The 'dir' format doesn't have an archive file");
+        }
+
+        InputStream openArchive(InputStream input)
+        {
+            throw new UnsupportedOperationException("The 'dir' format doesn't have an archive file");
+        }
+
+        @Override
+        public boolean isArchive()
+        {
+            return false;
+        }
+
+        @Override
+        public String getSuffix()
+        {
+            return "";
+        }
+    };
+
+    private final String name;
+
+    ArchiveFormat(String name)
+    {
+        this.name = name;
+    }
+
+    abstract ArchiveWriter createWriter(OutputStream output, int threads, int compressionLevel) throws IOException;
+
+    abstract InputStream openArchive(InputStream input) throws IOException;
+
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * @return the suffix of the result file, e.g. ".tar.gz"
+     */
+    public String getSuffix()
+    {
+        return "." + name;
+    }
+
+    /**
+     * @return True if the result is an archive file, false if the result folder is kept as is
+     */
+    public boolean isArchive()
+    {
+        return true;
+    }
+
+    /**
+     * This function creates the archive file and its writer.
+     *
+     * @param archivePath the archive file path
+     * @param threads the number of threads that compress the archive
+     * @param compressionLevel the compression level (used by the zstd format)
+     *
+     * @return the writer
+     * @throws IOException in case the archive file can't be created
+     */
+    public ArchiveWriter createWriter(String archivePath, int threads, int compressionLevel) throws IOException
+    {
+        if (!isArchive()) {
+            throw new UnsupportedOperationException("The '" + name + "' format doesn't have an archive file");
+        }
+        OutputStream output = new BufferedOutputStream(new FileOutputStream(archivePath));
+        try {
+            return createWriter(output, threads, compressionLevel);
+        }
+        catch (IOException | RuntimeException e) {
+            output.close();
+            throw e;
+        }
+    }
+
+    /**
+     * This function opens a given archive file for reading, the returned stream reads the uncompressed tar file.
+     *
+     * @param archivePath the archive file path
+     *
+     * @return the stream of the tar file
+     * @throws IOException in case the archive file can't be opened
+     */
+    public InputStream openArchive(String archivePath) throws IOException
+    {
+        InputStream input = new BufferedInputStream(new FileInputStream(archivePath));
+        try {
+            return openArchive(input);
+        }
+        catch (IOException | RuntimeException e) {
+            input.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @param name the name of the format, e.g. "tar.gz"
+     *
+     * @return the format, null if there is no such format
+     */
+    public static ArchiveFormat fromName(String name)
+    {
+        for (ArchiveFormat format : values()) {
+            if (format.name.equalsIgnoreCase(name)) {
+                return format;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param archivePath a path of a result file
+     *
+     * @return the archive format of the file according to its suffix, null if the suffix isn't of an archive format
+     */
+    public static ArchiveFormat fromArchivePath(String archivePath)
+    {
+        for (ArchiveFormat format : values()) {
+            if (format.isArchive() && archivePath.endsWith(format.getSuffix())) {
+                return format;
+            }
+        }
+        return null;
+    }
+}
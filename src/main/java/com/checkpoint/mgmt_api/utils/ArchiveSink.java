@@ -0,0 +1,138 @@
+package com.checkpoint.mgmt_api.utils;
+
+import java.io.*;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This class writes the archive file of the result folder while the export is running.
+ * Every result file is appended to the archive as soon as it's finished, and the archive is compressed by several
+ * threads (see {@link ArchiveFormat}), so only the last files are left when the export is done.
+ * A file which is written again (e.g. a layer which is shared by several packages) is appended again, the last entry
+ * of a file wins when the archive is extracted.
+ * The files are added by several threads, so the methods are synchronized.
+ */
+public class ArchiveSink implements Closeable {
+
+    private final Path rootFolder;
+    private final ArchiveWriter archiveWriter;
+    //True if the files are deleted as soon as they are in the archive (the result folder isn't kept)
+    private final boolean deleteArchivedFiles;
+
+    private final Set<String> archivedFolders = new HashSet<>();
+    //The files which were added to the archive, with the time they were modified when they were added
+    private final Map<String, Long> archivedFiles = new HashMap<>();
+    private boolean closed = false;
+
+    /**
+     * @param rootFolderPath the result folder, the names of the entries are relative to it
+     * @param archiveWriter the writer of the archive file, it's closed when the sink is closed
+     * @param deleteArchivedFiles True if the files are deleted as soon as they are in the archive
+     */
+    public ArchiveSink(String rootFolderPath, ArchiveWriter archiveWriter, boolean deleteArchivedFiles)
+    {
+        this.rootFolder = new File(rootFolderPath).toPath().toAbsolutePath().normalize();
+        this.archiveWriter = archiveWriter;
+        this.deleteArchivedFiles = deleteArchivedFiles;
+    }
+
+    /**
+     * This function appends a given result file to the archive.
+     *
+     * @param file the file, inside the result folder
+     *
+     * @throws IOException in case the file can't be read or the archive can't be written
+     */
+    public synchronized void addFile(File file) throws IOException
+    {
+        if (closed) {
+            return;
+        }
+        String entryName = getEntryName(file);
+        if (entryName == null) {
+            throw new IOException("'" + file + "' isn't inside the result folder '" + rootFolder + "'");
+        }
+
+        addParentFolders(entryName);
+
+        long lastModified = file.lastModified();
+        archiveWriter.addFile(file, entryName);
+        archivedFiles.put(entryName, lastModified);
+
+        if (deleteArchivedFiles && !file.delete()) {
+            throw new IOException("Failed to delete '" + file + "'");
+        }
+    }
+
+    /**
+     * This function appends the files of the result folder which weren't added yet (e.g. the log file), or which were
+     * changed since they were added.
+     *
+     * @throws IOException in case a file can't be read or the archive can't be written
+     */
+    public synchronized void addRemainingFiles() throws IOException
+    {
+        addRemainingFiles(rootFolder.toFile());
+    }
+
+    private void addRemainingFiles(File folder) throws IOException
+    {
+        File[] children = folder.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (child.isDirectory()) {
+                addRemainingFiles(child);
+                continue;
+            }
+            Long archivedLastModified = archivedFiles.get(getEntryName(child));
+            if (archivedLastModified == null || archivedLastModified != child.lastModified()) {
+                addFile(child);
+            }
+        }
+    }
+
+    private void addParentFolders(String entryName) throws IOException
+    {
+        int separator = entryName.indexOf('/');
+        while (separator > 0) {
+            String folderName = entryName.substring(0, separator);
+            if (archivedFolders.add(folderName)) {
+                archiveWriter.addFolder(rootFolder.resolve(folderName).toFile(), folderName);
+            }
+            separator = entryName.indexOf('/', separator + 1);
+        }
+    }
+
+    /**
+     * @return the name of the entry of a given file (its path relative to the result folder), or null if the file
+     *         isn't inside the result folder
+     */
+    private String getEntryName(File file)
+    {
+        Path path = file.toPath().toAbsolutePath().normalize();
+        if (!path.startsWith(rootFolder) || path.equals(rootFolder)) {
+            return null;
+        }
+        return rootFolder.relativize(path).toString().replace(File.separatorChar, '/');
+    }
+
+    /**
+     * This function finishes the archive, the files which are added later are ignored.
+     *
+     * @throws IOException in case the archive can't be written
+     */
+    @Override
+    public synchronized void close() throws IOException
+    {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        archiveWriter.close();
+    }
+}
@@ -0,0 +1,32 @@
+package com.checkpoint.mgmt_api.utils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * This interface writes the entries of an archive file (see {@link ArchiveFormat}).
+ * The writer is used by a single thread at a time, the entries are written in the order they are added.
+ */
+public interface ArchiveWriter extends Closeable {
+
+    /**
+     * This function adds the entry of a given folder.
+     *
+     * @param folder the folder
+     * @param entryName the name of the entry, relative to the root of the archive (with '/' separators)
+     *
+     * @throws IOException in case the archive can't be written
+     */
+    void addFolder(File folder, String entryName) throws IOException;
+
+    /**
+     * This function adds the entry of a given file with its content.
+     *
+     * @param file the file
+     * @param entryName the name of the entry, relative to the root of the archive (with '/' separators)
+     *
+     * @throws IOException in case the file can't be read or the archive can't be written
+     */
+    void addFile(File file, String entryName) throws IOException;
+}
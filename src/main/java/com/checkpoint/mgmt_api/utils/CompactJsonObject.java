@@ -0,0 +1,84 @@
+package com.checkpoint.mgmt_api.utils;
+
+import org.json.simple.JSONObject;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * This class holds a JSON object in its serialized form (UTF-8 bytes), together with a few of its fields.
+ * The fields are the ones that the tool reads (e.g. the uid, the type and the name), the other fields are kept only in
+ * the serialized form, which is written to the output as is. A serialized object takes a fraction of the memory of a
+ * tree of maps and lists.
+ * The object can't be changed, the serialized form would no longer match the object.
+ */
+public class CompactJsonObject extends JSONObject {
+
+    private static final long serialVersionUID = 1L;
+
+    private final byte[] json;
+
+    /**
+     * @param json the serialized form of the whole object
+     * @param fields the fields of the object which are kept in memory
+     */
+    public CompactJsonObject(String json, Map<String, Object> fields)
+    {
+        for (Map.Entry<String, Object> field : fields.entrySet()) {
+            super.put(field.getKey(), field.getValue());
+        }
+        this.json = json.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the serialized form of the whole object, as UTF-8 bytes (the array isn't copied, don't change it)
+     */
+    public byte[] getJsonBytes()
+    {
+        return json;
+    }
+
+    @Override
+    public String toJSONString()
+    {
+        return new String(json, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void writeJSONString(Writer out) throws IOException
+    {
+        out.write(toJSONString());
+    }
+
+    @Override
+    public String toString()
+    {
+        return toJSONString();
+    }
+
+    @Override
+    public Object put(Object key, Object value)
+    {
+        throw new UnsupportedOperationException("A compact JSON object can't be changed");
+    }
+
+    @Override
+    public void putAll(Map map)
+    {
+        throw new UnsupportedOperationException("A compact JSON object can't be changed");
+    }
+
+    @Override
+    public Object remove(Object key)
+    {
+        throw new UnsupportedOperationException("A compact JSON object can't be changed");
+    }
+
+    @Override
+    public void clear()
+    {
+        throw new UnsupportedOperationException("A compact JSON object can't be changed");
+    }
+}
@@ -0,0 +1,240 @@
+package com.checkpoint.mgmt_api.utils;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import java.io.*;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * This class holds a persistent cache of the objects and the API responses of previous runs.
+ * The cache directory is tagged (e.g. with the uid and the publish time of the published session). The entries of the
+ * directory are used only when the tag of the current run equals the tag of the directory, otherwise the directory is
+ * cleared and filled again by the current run.
+ * The class is thread safe.
+ */
+public class ExportCache {
+
+    private static final String TAG_FILE            = "cache-tag.json";
+    private static final String OBJECTS_FILE        = "objects.json";
+    private static final String RESPONSES_DIRECTORY = "responses";
+    private static final String JSON_SUFFIX         = ".json";
+    private static final String TEMP_SUFFIX         = ".tmp";
+
+    private static final Charset ENCODING = StandardCharsets.UTF_8;
+
+    private final File cacheDirectory;
+    private final File responsesDirectory;
+
+    /**
+     * @param cacheDirectoryPath the path of the cache directory
+     */
+    public ExportCache(String cacheDirectoryPath)
+    {
+        cacheDirectory = new File(cacheDirectoryPath);
+        responsesDirectory = new File(cacheDirectory, RESPONSES_DIRECTORY);
+    }
+
+    /**
+     * Prepare the cache directory for the given tag.
+     *
+     * @param tag the tag of the current run
+     *
+     * @return True if the directory already holds entries of the given tag, False if it was cleared
+     * @throws IOException in case the directory can't be created or cleared
+     */
+    public boolean open(JSONObject tag) throws IOException
+    {
+        if (!responsesDirectory.isDirectory() && !responsesDirectory.mkdirs()) {
+            throw new IOException("Failed to create cache directory '" + responsesDirectory + "'");
+        }
+
+        File tagFile = new File(cacheDirectory, TAG_FILE);
+        if (tagFile.isFile() && tag.equals(readJson(tagFile))) {
+            return true;
+        }
+
+        //The entries belong to another session (or to another configuration), they can't be used
+        clear();
+        writeJson(tagFile, tag);
+
+        return false;
+    }
+
+    /**
+     * @return the path of the cache directory
+     */
+    public String getPath()
+    {
+        return cacheDirectory.getPath();
+    }
+
+    /**
+     * Get the cached response of a given call.
+     *
+     * @param command the command of the call
+     * @param payload the payload of the call
+     *
+     * @return the cached response, or null if the response isn't cached
+     */
+    public JSONObject getResponse(String command, JSONObject payload)
+    {
+        File responseFile = getResponseFile(command, payload);
+        if (!responseFile.isFile()) {
+            return null;
+        }
+        Object response = readJson(responseFile);
+
+        return response instanceof JSONObject ? (JSONObject) response : null;
+    }
+
+    /**
+     * Save the response of a given call.
+     *
+     * @param command the command of the call
+     * @param payload the payload of the call
+     * @param response the response
+     *
+     * @throws IOException in case the response can't be written
+     */
+    public void putResponse(String command, JSONObject payload, JSONObject response) throws IOException
+    {
+        writeJson(getResponseFile(command, payload), response);
+    }
+
+    /**
+     * @return the objects which were saved by the previous run (empty if there are none)
+     */
+    public JSONArray readObjects()
+    {
+        File objectsFile = new File(cacheDirectory, OBJECTS_FILE);
+        if (objectsFile.isFile()) {
+            Object objects = readJson(objectsFile);
+            if (objects instanceof JSONArray) {
+                return (JSONArray) objects;
+            }
+        }
+        return new JSONArray();
+    }
+
+    /**
+     * Save the objects of the current run.
+     *
+     * @param objects the objects
+     *
+     * @throws IOException in case the objects can't be written
+     */
+    public void writeObjects(Collection<JSONObject> objects) throws IOException
+    {
+        File objectsFile = new File(cacheDirectory, OBJECTS_FILE);
+        File tempFile = new File(cacheDirectory, OBJECTS_FILE + TEMP_SUFFIX);
+
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tempFile), ENCODING))) {
+            writer.write("[");
+            boolean first = true;
+            for (JSONObject object : objects) {
+                if (!first) {
+                    writer.write(",");
+                }
+                object.writeJSONString(writer);
+                first = false;
+            }
+            writer.write("]");
+        }
+        Files.move(tempFile.toPath(), objectsFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private void clear()
+    {
+        File[] responses = responsesDirectory.listFiles();
+        if (responses != null) {
+            for (File response : responses) {
+                response.delete();
+            }
+        }
+        new File(cacheDirectory, OBJECTS_FILE).delete();
+        new File(cacheDirectory, TAG_FILE).delete();
+    }
+
+    private File getResponseFile(String command, JSONObject payload)
+    {
+        return new File(responsesDirectory, digest(command + "\n" + toCanonicalJson(payload)) + JSON_SUFFIX);
+    }
+
+    /**
+     * The same payload always gives the same string (the keys are sorted), no matter in which order it was built.
+     */
+    private static String toCanonicalJson(Object value)
+    {
+        if (value instanceof Map) {
+            Map<String, String> sorted = new TreeMap<>();
+            for (Object entry : ((Map) value).entrySet()) {
+                Map.Entry mapEntry = (Map.Entry) entry;
+                sorted.put(String.valueOf(mapEntry.getKey()), toCanonicalJson(mapEntry.getValue()));
+            }
+            StringBuilder json = new StringBuilder("{");
+            for (Map.Entry<String, String> entry : sorted.entrySet()) {
+                if (json.length() > 1) {
+                    json.append(",");
+                }
+                json.append(JSONValue.toJSONString(entry.getKey())).append(":").append(entry.getValue());
+            }
+            return json.append("}").toString();
+        }
+        if (value instanceof List) {
+            StringBuilder json = new StringBuilder("[");
+            for (Object item : (List) value) {
+                if (json.length() > 1) {
+                    json.append(",");
+                }
+                json.append(toCanonicalJson(item));
+            }
+            return json.append("]").toString();
+        }
+        return JSONValue.toJSONString(value);
+    }
+
+    private static String digest(String value)
+    {
+        try {
+            MessageDigest messageDigest = MessageDigest.getInstance("SHA-1");
+            return String.format("%040x", new BigInteger(1, messageDigest.digest(value.getBytes(ENCODING))));
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Object readJson(File file)
+    {
+        try (Reader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), ENCODING))) {
+            return new JSONParser().parse(reader);
+        }
+        catch (IOException | ParseException e) {
+            //A broken entry is the same as a missing entry
+            return null;
+        }
+    }
+
+    /**
+     * The file is written to a temp file first, so other threads never read a partially written file.
+     */
+    private static void writeJson(File file, JSONObject json) throws IOException
+    {
+        File tempFile = File.createTempFile(file.getName(), TEMP_SUFFIX, file.getParentFile());
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tempFile), ENCODING))) {
+            json.writeJSONString(writer);
+        }
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+}
@@ -1,13 +1,17 @@
 package com.checkpoint.mgmt_api.utils;
 
 import com.checkpoint.mgmt_api.objects.Layer;
+import org.json.simple.JSONObject;
 import org.json.simple.JSONValue;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
 
 /**
@@ -69,21 +73,21 @@ public enum HtmlUtils {
         private RulebaseData rulebaseData;
         //In case the html file is rulebase needed the map to connect between name to uid
         private Map<String,String> uidToName;
-        //The temp file contains the json objects
-        private String objectsFileName;
 
         private List<String> templateLines;
         private String htmlFileName;
+        //The json file contains the json objects, the data of the html file is copied from it
         private String jsonFileName;
+        //The scripts that the html file loads (relative to the html file), e.g. the shared uid_to_name of the package
+        private List<String> scriptFileNames = Collections.emptyList();
 
 
-        FileDetails(String objectsFileName, List<String> templateLines, String htmlFileName, String jsonFileName){
-            this(objectsFileName, templateLines, htmlFileName, jsonFileName, null, null);
+        FileDetails(List<String> templateLines, String htmlFileName, String jsonFileName){
+            this(templateLines, htmlFileName, jsonFileName, null, null);
         }
 
-        FileDetails(String objectsFileName, List<String> templateLines, String htmlFileName,String jsonFileName,
+        FileDetails(List<String> templateLines, String htmlFileName,String jsonFileName,
                     Map<String,String> uidToName, RulebaseData rulebaseData){
-            this.objectsFileName = objectsFileName;
             this.templateLines = templateLines;
             this.uidToName = uidToName;
             this.rulebaseData = rulebaseData;
@@ -103,11 +107,6 @@ public enum HtmlUtils {
             return htmlFileName;
         }
 
-        public String getObjectsFileName()
-        {
-            return objectsFileName;
-        }
-
         public Map<String, String> getUidToName()
         {
             return uidToName;
@@ -123,6 +122,16 @@ public enum HtmlUtils {
             return jsonFileName ;
         }
 
+        List<String> getScriptFileNames()
+        {
+            return scriptFileNames;
+        }
+
+        void setScriptFileNames(List<String> scriptFileNames)
+        {
+            this.scriptFileNames = scriptFileNames;
+        }
+
     }
 
     //========================================//
@@ -134,44 +143,113 @@ public enum HtmlUtils {
     public static final String RULEBASE_HTML_TEMPLATE = "rulebase.tpl.html";
     public static final String OBJECTS_HTML_TEMPLATE  = "objects.tpl.html";
     public static final String INDEX_HTML_TEMPLATE    = "index.tpl.html";
+    public static final String DOMAINS_HTML_TEMPLATE  = "domains.tpl.html";
+    //The search functions of the pages, appended to the search index script of every package
+    public static final String SEARCH_INDEX_JS_TEMPLATE = "search_index.tpl.js";
 
-    public static final String[] ALL_TEMPLATES = new String[]{INDEX_HTML_TEMPLATE, OBJECTS_HTML_TEMPLATE, RULEBASE_HTML_TEMPLATE};
-
-    //Temp file that holds the objects info
-    private static final String OBJECTS_FILE  = "objects.txt";
-    //Temp file that holds the rulbase info
-    private static final String RULEBASE_FILE = "rulebase.txt";
+    public static final String[] ALL_TEMPLATES = new String[]{INDEX_HTML_TEMPLATE, OBJECTS_HTML_TEMPLATE, RULEBASE_HTML_TEMPLATE,
+                                                              DOMAINS_HTML_TEMPLATE, SEARCH_INDEX_JS_TEMPLATE};
 
     //Format of place holder in template files
     private static final String TEMPLATE_PLACE_HOLDER  = "/*<%%>*/";
+    //The place of the scripts that the page loads (the line is dropped if the page doesn't load scripts)
+    private static final String SCRIPTS_PLACE_HOLDER   = "<!--<%%scripts%%>-->";
 
     //Suffix
     private static final String HTML_SUFFIX   = ".html";
     private static final String JSON_SUFFIX   = ".json";
+    private static final String UID_TO_NAME_SCRIPT_SUFFIX = "_uid_to_name.js";
+    private static final String SEARCH_INDEX_SCRIPT_SUFFIX = "_search_index.js";
 
     //Set encoding format
     private static final Charset ENCODING    = StandardCharsets.UTF_8;
-    //Buffer reader size
-    private static final int BUFFER_SIZE = 1024;
 
-    private String resultFolderPath;
     private Map<String, List<String>> templatesMap = new HashMap<>();
+    //Locks of the result files, a layer which is shared by several packages may be written by several threads
+    private final Map<String, Object> fileLocks = new HashMap<>();
+    //The finished result files are appended to the tar file while the export is running (if it's set)
+    private ArchiveSink archiveSink = null;
+    //True if the rulebase pages of a package load its uid_to_name from a shared script, instead of having it inline
+    private boolean sharedDictionary = false;
+    //True if the rulebase and objects pages of a package load its search index
+    private boolean searchIndexEnabled = false;
+
+    public void setArchiveSink(ArchiveSink archiveSink)
+    {
+        this.archiveSink = archiveSink;
+    }
+
+    public boolean isSharedDictionary()
+    {
+        return sharedDictionary;
+    }
+
+    public void setSharedDictionary(boolean sharedDictionary)
+    {
+        this.sharedDictionary = sharedDictionary;
+    }
+
+    /**
+     * This function returns the layout of the rulebase pages (the options which change the content of a page, other
+     * than its rules). It's written into every rulebase page, so a page of a previous export is reused only if it has
+     * the same layout.
+     *
+     * @return the layout as a json string
+     */
+    public String getRulebaseLayout()
+    {
+        Map<String, Object> layout = new LinkedHashMap<>();
+        layout.put("shared-dictionary", sharedDictionary);
+        layout.put("search-index", searchIndexEnabled);
+        return JSONValue.toJSONString(layout);
+    }
+
+    public boolean isSearchIndexEnabled()
+    {
+        return searchIndexEnabled;
+    }
+
+    public void setSearchIndexEnabled(boolean searchIndexEnabled)
+    {
+        this.searchIndexEnabled = searchIndexEnabled;
+    }
+
+    /**
+     * This function appends the given finished result files to the tar file (if the tar file is written while the
+     * export is running)
+     *
+     * @param fileNames the files
+     *
+     * @throws IOException
+     */
+    private void archiveFiles(String... fileNames) throws IOException
+    {
+        if (archiveSink == null) {
+            return;
+        }
+        for (String fileName : fileNames) {
+            archiveSink.addFile(new File(fileName));
+        }
+    }
 
     /**
      * This function creates a rulebase html page by replacing the dynamic content in the template with the relevant information
      *
+     * @param folderPath the folder that the page is written into
      * @param layerName layer's name
      * @param packageName package's name
      * @param domain domain name
      * @param rulebaseType rulebase type (THREAT/IPS/ACCESS/NAT)
      * @param failedCreatingRulbase True if the html file will show an error.
+     * @param rulebaseFile the pending file that holds the rulebase info, it's moved to the json file of the rulebase
      *
      * @throws IOException
      */
 
-    public void writeRulebaseHTML(String layerName, String packageName, String domain, String apiVersion,
+    public void writeRulebaseHTML(String folderPath, String layerName, String packageName, String domain, String apiVersion,
                                   String rulebaseType ,Map<String,String> uidToName,
-                                  Set<Layer> inlineLayers, boolean failedCreatingRulbase) throws IOException {
+                                  Set<Layer> inlineLayers, boolean failedCreatingRulbase,
+                                  File rulebaseFile) throws IOException {
 
         //In case of nat set the domain name to be 'Management server'
         if(domain == null || domain.isEmpty()) {
@@ -182,13 +260,78 @@ public enum HtmlUtils {
                 + packageName + "\", " + "\"layer\" : \"" + layerName + "\", \"type\" : \"" + rulebaseType + "\"}";
 
 
-        String htmlFileName = resultFolderPath +layerName + "-" + domain + HTML_SUFFIX;
-        String jsonFileName = resultFolderPath +layerName + "-" + domain + JSON_SUFFIX;
-        String objectsFile =  resultFolderPath + RULEBASE_FILE;
-        FileDetails details = new FileDetails(objectsFile,getRulebaseHtmlTemplateLines(),htmlFileName, jsonFileName,
-                                              uidToName, new RulebaseData(rulebase, inlineLayers, failedCreatingRulbase));
-        createHtmlFile(details, FileType.RULEBASE);
+        String htmlFileName = folderPath + getRulebaseFileName(layerName, domain) + HTML_SUFFIX;
+        String jsonFileName = folderPath + getRulebaseFileName(layerName, domain) + JSON_SUFFIX;
+        FileDetails details = new FileDetails(getRulebaseHtmlTemplateLines(),htmlFileName, jsonFileName,
+                                              sharedDictionary ? null : uidToName,
+                                              new RulebaseData(rulebase, inlineLayers, failedCreatingRulbase));
+        List<String> scriptFileNames = new ArrayList<>();
+        if (sharedDictionary) {
+            scriptFileNames.add(getUidToNameScriptName(packageName));
+        }
+        if (searchIndexEnabled) {
+            scriptFileNames.add(getSearchIndexScriptName(packageName));
+        }
+        details.setScriptFileNames(scriptFileNames);
+        synchronized (getFileLock(htmlFileName)) {
+            //The rules were written once into the pending file, the file becomes the json file of the rulebase
+            Files.move(rulebaseFile.toPath(), Paths.get(jsonFileName), StandardCopyOption.REPLACE_EXISTING);
+            createHtmlFile(details, FileType.RULEBASE);
+            archiveFiles(jsonFileName, htmlFileName);
+        }
+
+    }
+
+    /**
+     * This function returns the name (without the suffix) of the html and json files of a given rulebase
+     *
+     * @param layerName layer's name
+     * @param domain domain name
+     *
+     * @return the file name
+     */
+    public String getRulebaseFileName(String layerName, String domain)
+    {
+        //In case of nat set the domain name to be 'Management server'
+        if(domain == null || domain.isEmpty()) {
+            domain = "Management server";
+        }
+        return layerName + "-" + domain;
+    }
+
+    /**
+     * This function copies the html and json files of a given rulebase from a previous export into the result folder
+     *
+     * @param previousFolderPath the folder of the previous export
+     * @param folderPath the folder that the files are copied into
+     * @param layerName layer's name
+     * @param domain domain name
+     *
+     * @throws IOException
+     */
+    public void copyRulebaseFiles(String previousFolderPath, String folderPath, String layerName, String domain)
+            throws IOException
+    {
+        String fileName = getRulebaseFileName(layerName, domain);
+        synchronized (getFileLock(folderPath + fileName + HTML_SUFFIX)) {
+            for (String suffix : new String[]{HTML_SUFFIX, JSON_SUFFIX}) {
+                Files.copy(Paths.get(previousFolderPath, fileName + suffix), Paths.get(folderPath + fileName + suffix),
+                           StandardCopyOption.REPLACE_EXISTING);
+            }
+            archiveFiles(folderPath + fileName + JSON_SUFFIX, folderPath + fileName + HTML_SUFFIX);
+        }
+    }
 
+    private Object getFileLock(String fileName)
+    {
+        synchronized (fileLocks) {
+            Object lock = fileLocks.get(fileName);
+            if (lock == null) {
+                lock = new Object();
+                fileLocks.put(fileName, lock);
+            }
+            return lock;
+        }
     }
 
     /**
@@ -199,17 +342,23 @@ public enum HtmlUtils {
      */
     public void createHtmlFile(FileDetails details, FileType fileType) throws IOException
     {
-        try (PrintStream writer = new PrintStream(new File(details.getHtmlFileName()))) {
+        try (FileOutputStream htmlOutput = new FileOutputStream(details.getHtmlFileName());
+             PrintStream writer = new PrintStream(new BufferedOutputStream(htmlOutput), false, ENCODING.name())) {
 
             for (String line : details.getTemplateLines()) {
-                if (!line.contains(TEMPLATE_PLACE_HOLDER))
+                if (line.contains(SCRIPTS_PLACE_HOLDER)) {
+                    for (String scriptFileName : details.getScriptFileNames()) {
+                        writer.println("    <script src=\"" + encodeFileName(scriptFileName) + "\"></script>");
+                    }
+                }
+                else if (!line.contains(TEMPLATE_PLACE_HOLDER))
                     writer.println(line);
                 else {
                     if (fileType == FileType.OBJECTS) {
-                        setDataInHtmlFile(writer, details);
+                        setDataInHtmlFile(writer, htmlOutput.getChannel(), details);
                     }
                     else if (fileType == FileType.RULEBASE) {
-                        setRulebaseHtmlFile(writer, details);
+                        setRulebaseHtmlFile(writer, htmlOutput.getChannel(), details);
                     }
                 }
             }
@@ -219,120 +368,224 @@ public enum HtmlUtils {
     /**
      * This function writes the info of the rulbase to the html file
      * @param htmlFile The html to write to
+     * @param htmlChannel the channel of the html file
      * @param details {@link FileDetails} contain info about the html file
      * @throws IOException
      */
-    public void setRulebaseHtmlFile(PrintStream htmlFile , FileDetails details) throws IOException{
+    public void setRulebaseHtmlFile(PrintStream htmlFile, FileChannel htmlChannel, FileDetails details) throws IOException{
 
         htmlFile.println("\t\tvar rulebase = " + details.getRulebaseData().getRulebaseDataContent() + ";");
-        htmlFile.print("\t\tvar uid_to_name = ");
-        htmlFile.print(JSONValue.toJSONString(details.getUidToName()));
-        htmlFile.println(";");
+        //The layout and the status come before the (possibly long) uid_to_name, the next export reads them
+        htmlFile.println("\t\tvar rulebase_layout = " + getRulebaseLayout() + ";");
 
         htmlFile.print("\t\tvar failed_creating_layer = ");
         htmlFile.print(JSONValue.toJSONString(details.getRulebaseData().isFailedCreatingRulebase()));
         htmlFile.println(";");
 
+        //A shared uid_to_name is loaded by the script of the package
+        if (details.getUidToName() != null) {
+            htmlFile.print("\t\tvar uid_to_name = ");
+            htmlFile.print(JSONValue.toJSONString(details.getUidToName()));
+            htmlFile.println(";");
+        }
+
         htmlFile.print("\t\tvar inline_layer_uid_to_file_name = ");
         htmlFile.print(JSONValue.toJSONString(details.getRulebaseData().getInlineLayerUidToFileNameMap()));
         htmlFile.println(";");
 
-        setDataInHtmlFile(htmlFile, details);
+        setDataInHtmlFile(htmlFile, htmlChannel, details);
     }
 
     /**
-     * This function writes the data to the html file
+     * This function writes the data to the html file.
+     * The data is copied from the json file by the channels, without passing through the heap.
      * @param htmlFile The html to write to
+     * @param htmlChannel the channel of the html file
      * @param details {@link FileDetails} contain info about the html file
      * @throws IOException
      */
-    private void setDataInHtmlFile(PrintStream htmlFile, FileDetails details) throws IOException
+    private void setDataInHtmlFile(PrintStream htmlFile, FileChannel htmlChannel, FileDetails details) throws IOException
     {
         htmlFile.print("\t\tvar data = ");
-        try(FileInputStream reader = new FileInputStream(details.getObjectsFileName());
-            PrintStream jsonWriter = new PrintStream(new File(details.getJsonFileName()))) {
-
-            //If the temp file is empty return
-            if (reader.available() == 0){
-                return;
-            }
-
-            //Read from temp file until get to EOF and write the info to the html file and json file.
-            int resRead;
-            byte[] buffer = new byte[BUFFER_SIZE];
-            while((resRead = reader.read(buffer)) != -1)
-            {
-                if (resRead < BUFFER_SIZE){
-                    htmlFile.write(Arrays.copyOfRange(buffer,0,resRead));
-                    jsonWriter.write(Arrays.copyOfRange(buffer,0,resRead));
-                }
-                else {
-                    htmlFile.write(buffer);
-                    jsonWriter.write(buffer);
-                }
-                htmlFile.flush();
-                jsonWriter.flush();
+        //The buffered content has to reach the file before the data is appended by the channel
+        htmlFile.flush();
+        try (FileInputStream reader = new FileInputStream(details.getJsonFileName())) {
+            FileChannel jsonChannel = reader.getChannel();
+            long size = jsonChannel.size();
+            long position = 0;
+            while (position < size) {
+                position += jsonChannel.transferTo(position, size - position, htmlChannel);
             }
         }
         finally {
             //Close the list
             htmlFile.println(";");
-            //Delete the info from the temp file
-            try(PrintWriter writer = new PrintWriter(details.getObjectsFileName())) {
-                writer.print("");
-            }
         }
     }
     /**
      *This function creates the objects html page by replacing the dynamic content in the template files with the relevant
      *  information
      *
+     * @param folderPath the folder that the page is written into
      * @param packageName the package's name that the objects belong to
      *
      * @throws FileNotFoundException
      * @throws UnsupportedEncodingException
      */
-   public void writeObjectsHTML(String packageName) throws IOException
+   public void writeObjectsHTML(String folderPath, String packageName) throws IOException
    {
-       String objectsFile = resultFolderPath + OBJECTS_FILE;
-       String htmlFileName = resultFolderPath + packageName + "_objects" + HTML_SUFFIX;
-       String jsonFileName = resultFolderPath + packageName + "_objects" + JSON_SUFFIX;
-       FileDetails details = new FileDetails(objectsFile, getObjectsHtmlTemplateLines(), htmlFileName, jsonFileName);
+       String htmlFileName = folderPath + packageName + "_objects" + HTML_SUFFIX;
+       FileDetails details = new FileDetails(getObjectsHtmlTemplateLines(), htmlFileName,
+                                             getObjectsJsonFile(folderPath, packageName).getPath());
+       if (searchIndexEnabled) {
+           details.setScriptFileNames(Collections.singletonList(getSearchIndexScriptName(packageName)));
+       }
        createHtmlFile(details, FileType.OBJECTS);
+       archiveFiles(details.getJsonFileName(), htmlFileName);
+    }
+
+    /**
+     * This function writes the uid_to_name script of a given package, which is loaded by all the rulebase pages of the
+     * package (when the dictionary is shared).
+     *
+     * @param folderPath the folder that the script is written into
+     * @param packageName the package's name
+     * @param uidToName the objects of the package
+     *
+     * @throws IOException
+     */
+    public void writeUidToNameScript(String folderPath, String packageName, Map<String, String> uidToName)
+            throws IOException
+    {
+        String scriptFileName = folderPath + getUidToNameScriptName(packageName);
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(scriptFileName), ENCODING))) {
+            writer.write("var uid_to_name = ");
+            JSONValue.writeJSONString(uidToName, writer);
+            writer.write(";\n");
+        }
+        archiveFiles(scriptFileName);
+    }
+
+    private String getUidToNameScriptName(String packageName)
+    {
+        return packageName + UID_TO_NAME_SCRIPT_SUFFIX;
+    }
+
+    /**
+     * This function writes the search index script of a given package, which is loaded by the rulebase pages and the
+     * objects page of the package. The script holds the index and the search functions that the pages share.
+     *
+     * @param folderPath the folder that the script is written into
+     * @param packageName the package's name
+     * @param uidToName the objects of the package
+     * @param objectStore the objects, used for their types
+     * @param searchIndex the rules of the layers of the package
+     *
+     * @throws IOException
+     */
+    public void writeSearchIndexScript(String folderPath, String packageName, Map<String, String> uidToName,
+                                       Map<String, JSONObject> objectStore, SearchIndex searchIndex) throws IOException
+    {
+        String scriptFileName = folderPath + getSearchIndexScriptName(packageName);
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(scriptFileName), ENCODING))) {
+            searchIndex.writeScript(writer, uidToName, objectStore);
+            for (String line : getTemplatePath(SEARCH_INDEX_JS_TEMPLATE)) {
+                writer.write(line);
+                writer.write('\n');
+            }
+        }
+        archiveFiles(scriptFileName);
+    }
+
+    private String getSearchIndexScriptName(String packageName)
+    {
+        return packageName + SEARCH_INDEX_SCRIPT_SUFFIX;
+    }
+
+    /**
+     * This function encodes a given file name for the src attribute of a script, the characters which aren't
+     * allowed in a relative URL (or in an attribute) are percent-encoded.
+     */
+    private static String encodeFileName(String fileName)
+    {
+        StringBuilder encoded = new StringBuilder();
+        for (byte b : fileName.getBytes(ENCODING)) {
+            char ch = (char) (b & 0xFF);
+            if ((ch >= 'a' && ch <= 'z') || (ch >= 'A' && ch <= 'Z') || (ch >= '0' && ch <= '9')
+                    || ch == '-' || ch == '_' || ch == '.' || ch == '~') {
+                encoded.append(ch);
+            }
+            else {
+                encoded.append('%').append(String.format("%02X", b & 0xFF));
+            }
+        }
+        return "./" + encoded;
+    }
+
+    /**
+     * This function returns the json file of the objects of a given package, the objects are written straight into it
+     *
+     * @param folderPath the folder that the file is written into
+     * @param packageName the package's name that the objects belong to
+     *
+     * @return the file
+     */
+    public File getObjectsJsonFile(String folderPath, String packageName)
+    {
+        return new File(folderPath + packageName + "_objects" + JSON_SUFFIX);
     }
 
     /**
      *This function creates the gateways html page by replacing the dynamic content in the template files with the relevant
      *  information
      *
+     * @param folderPath the folder that the page is written into
      * @param packageName the package's which installed on the gateways
      *
      * @throws FileNotFoundException
      * @throws UnsupportedEncodingException
      */
-    public boolean writeGatewaysHTML(String packageName, String objectsAsJsonString ) throws IOException
+    public boolean writeGatewaysHTML(String folderPath, String packageName, String objectsAsJsonString ) throws IOException
     {
         String pageName = packageName +"_gateway_objects";
-        return writeToHtmlPage(pageName, objectsAsJsonString, getObjectsHtmlTemplateLines());
+        return writeToHtmlPage(folderPath, pageName, objectsAsJsonString, getObjectsHtmlTemplateLines());
     }
 
     /**
      * This function creates the index html page by replacing the dynamic content in the template with the relevant information
      *
+     * @param folderPath the folder that the page is written into
      * @param index the information about the index
      * @return true on success.
      *
      * @throws FileNotFoundException
      * @throws UnsupportedEncodingException
      */
-    public boolean writeIndexHTML(String index) throws FileNotFoundException, UnsupportedEncodingException {
+    public boolean writeIndexHTML(String folderPath, String index) throws FileNotFoundException, UnsupportedEncodingException {
 
-        return writeToHtmlPage("index", index, getIndexHtmlTemplateLines());
+        return writeToHtmlPage(folderPath, "index", index, getIndexHtmlTemplateLines());
+    }
+
+    /**
+     * This function creates the main index html page of a multi-domain export, which links to the index page of
+     * every domain
+     *
+     * @param folderPath the folder that the page is written into
+     * @param domains the information about the domains
+     * @return true on success.
+     *
+     * @throws FileNotFoundException
+     * @throws UnsupportedEncodingException
+     */
+    public boolean writeDomainsIndexHTML(String folderPath, String domains) throws FileNotFoundException, UnsupportedEncodingException {
+
+        return writeToHtmlPage(folderPath, "index", domains, getTemplatePath(DOMAINS_HTML_TEMPLATE));
     }
 
     /**
      * Util function in order to write html page
      *
+     * @param folderPath the folder that the page is written into
      * @param pageName the html page name
      * @param stringToReplace the information that needs to be written to the page
      * @param objectsHtmlTemplateLines the lines of the template file which the information will be written to
@@ -341,7 +594,7 @@ public enum HtmlUtils {
      * @throws FileNotFoundException
      * @throws UnsupportedEncodingException
      */
-    private boolean writeToHtmlPage(String pageName, String stringToReplace, List<String> objectsHtmlTemplateLines)
+    private boolean writeToHtmlPage(String folderPath, String pageName, String stringToReplace, List<String> objectsHtmlTemplateLines)
             throws FileNotFoundException, UnsupportedEncodingException{
 
         if(objectsHtmlTemplateLines == null || objectsHtmlTemplateLines.isEmpty()) {
@@ -349,13 +602,21 @@ public enum HtmlUtils {
         }
 
         try(
-                PrintWriter htmlWriter = new PrintWriter(resultFolderPath +pageName +HTML_SUFFIX, ENCODING.displayName());
-                PrintWriter jsonWriter = new PrintWriter(resultFolderPath + pageName + JSON_SUFFIX)
+                PrintWriter htmlWriter = new PrintWriter(folderPath +pageName +HTML_SUFFIX, ENCODING.displayName());
+                PrintWriter jsonWriter = new PrintWriter(folderPath + pageName + JSON_SUFFIX)
         )
         {
             replaceTemplate(stringToReplace, objectsHtmlTemplateLines, htmlWriter, jsonWriter);
         }
 
+        try {
+            archiveFiles(folderPath + pageName + JSON_SUFFIX, folderPath + pageName + HTML_SUFFIX);
+        }
+        catch (IOException e) {
+            //The page is added to the tar file when the export is done
+            return true;
+        }
+
         return true;
     }
 
@@ -395,15 +656,6 @@ public enum HtmlUtils {
         }
     }
 
-    /**
-     * Set the folder path
-     *
-     * @param resultFolderPath
-     */
-    public void setResultFolderPath(String resultFolderPath) {
-        this.resultFolderPath = resultFolderPath;
-    }
-
     public void readTemplatesFromClassPath() throws Exception {
         final ClassLoader cl = getClass().getClassLoader();
 
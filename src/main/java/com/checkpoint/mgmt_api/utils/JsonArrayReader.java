@@ -0,0 +1,140 @@
+package com.checkpoint.mgmt_api.utils;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.ContentHandler;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * This class reads a JSON array (e.g. a file of objects of a previous export) one element after the other.
+ * Every element is handed over as soon as it's parsed, so the whole array is never kept in memory.
+ * The elements are json-simple trees (JSONObject, JSONArray, strings, numbers, booleans and null).
+ */
+public class JsonArrayReader {
+
+    /**
+     * This interface handles the elements of the array, in their order.
+     */
+    public interface ElementHandler {
+        void handle(Object element);
+    }
+
+    /**
+     * This function reads the elements of the array of a given reader.
+     * If the JSON isn't an array, the whole value is handed over as a single element.
+     *
+     * @param reader the reader of the JSON
+     * @param handler the handler of the elements
+     *
+     * @throws IOException in case the reader failed
+     * @throws ParseException in case the JSON isn't valid
+     */
+    public static void readElements(Reader reader, ElementHandler handler) throws IOException, ParseException
+    {
+        new JSONParser().parse(reader, new ElementsContentHandler(handler));
+    }
+
+    /**
+     * Builds the elements of the top-level array from the events of the parser.
+     */
+    private static class ElementsContentHandler implements ContentHandler {
+
+        private final ElementHandler handler;
+        //The objects and arrays which are being built, the innermost is first
+        private final Deque<Object> containers = new ArrayDeque<>();
+        private final Deque<String> keys = new ArrayDeque<>();
+        private boolean rootArrayStarted = false;
+
+        ElementsContentHandler(ElementHandler handler)
+        {
+            this.handler = handler;
+        }
+
+        @Override
+        public void startJSON()
+        {
+        }
+
+        @Override
+        public void endJSON()
+        {
+        }
+
+        @Override
+        public boolean startObject()
+        {
+            containers.push(new JSONObject());
+            return true;
+        }
+
+        @Override
+        public boolean endObject()
+        {
+            addValue(containers.pop());
+            return true;
+        }
+
+        @Override
+        public boolean startObjectEntry(String key)
+        {
+            keys.push(key);
+            return true;
+        }
+
+        @Override
+        public boolean endObjectEntry()
+        {
+            return true;
+        }
+
+        @Override
+        public boolean startArray()
+        {
+            if (!rootArrayStarted && containers.isEmpty()) {
+                //The top-level array itself isn't built, only its elements
+                rootArrayStarted = true;
+                return true;
+            }
+            containers.push(new JSONArray());
+            return true;
+        }
+
+        @Override
+        public boolean endArray()
+        {
+            if (containers.isEmpty()) {
+                //The end of the top-level array
+                return true;
+            }
+            addValue(containers.pop());
+            return true;
+        }
+
+        @Override
+        public boolean primitive(Object value)
+        {
+            addValue(value);
+            return true;
+        }
+
+        private void addValue(Object value)
+        {
+            Object container = containers.peek();
+            if (container == null) {
+                handler.handle(value);
+            }
+            else if (container instanceof JSONObject) {
+                ((JSONObject) container).put(keys.pop(), value);
+            }
+            else {
+                ((JSONArray) container).add(value);
+            }
+        }
+    }
+}
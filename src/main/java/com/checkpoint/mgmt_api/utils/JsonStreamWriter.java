@@ -0,0 +1,312 @@
+package com.checkpoint.mgmt_api.utils;
+
+import org.json.simple.JSONAware;
+
+import java.io.*;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class writes a JSON array of objects into a file, one element after the other.
+ * The elements (json-simple trees of maps, lists, strings, numbers and booleans) are serialized straight into a
+ * reusable UTF-8 byte buffer, which is written to the file in large blocks. The output is the same as the output of
+ * json-simple's toJSONString, without building a String (and its byte copy) for every element.
+ * A {@link CompactJsonObject} is already serialized, its bytes are copied as is.
+ * The class isn't thread safe, every writer is used by a single thread.
+ */
+public class JsonStreamWriter implements Closeable, Flushable {
+
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    private static final byte[] NULL  = {'n', 'u', 'l', 'l'};
+    private static final byte[] HEX   = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F'};
+
+    private final FileOutputStream output;
+    private final byte[] buffer;
+    private int position = 0;
+
+    //True until the first element of the current array is written (the next element isn't preceded by a comma)
+    private boolean firstElement = true;
+    //The number of bytes that were written into the file
+    private long size = 0;
+
+    /**
+     * @param file the file, created (or truncated) by the writer
+     *
+     * @throws IOException in case the file can't be opened
+     */
+    public JsonStreamWriter(File file) throws IOException
+    {
+        this(file, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param file the file, created (or truncated) by the writer
+     * @param bufferSize the size of the buffer, the file is written in blocks of that size
+     *
+     * @throws IOException in case the file can't be opened
+     */
+    public JsonStreamWriter(File file, int bufferSize) throws IOException
+    {
+        output = new FileOutputStream(file);
+        buffer = new byte[bufferSize];
+    }
+
+    /**
+     * Start a new array.
+     *
+     * @throws IOException in case of a write error
+     */
+    public void beginArray() throws IOException
+    {
+        writeByte('[');
+        firstElement = true;
+    }
+
+    /**
+     * Write an element of the current array.
+     *
+     * @param value the element (a map, a list, a string, a number, a boolean or null)
+     *
+     * @throws IOException in case of a write error
+     */
+    public void writeElement(Object value) throws IOException
+    {
+        if (!firstElement) {
+            writeByte(',');
+        }
+        writeValue(value);
+        firstElement = false;
+    }
+
+    /**
+     * End the current array and write the buffer into the file.
+     *
+     * @throws IOException in case of a write error
+     */
+    public void endArray() throws IOException
+    {
+        writeByte(']');
+        flush();
+    }
+
+    /**
+     * @return the number of bytes that were written since the writer was opened
+     */
+    public long size()
+    {
+        return size + position;
+    }
+
+    @Override
+    public void flush() throws IOException
+    {
+        if (position > 0) {
+            output.write(buffer, 0, position);
+            size += position;
+            position = 0;
+        }
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        try {
+            flush();
+        }
+        finally {
+            output.close();
+        }
+    }
+
+    private void writeValue(Object value) throws IOException
+    {
+        if (value == null) {
+            writeBytes(NULL);
+        }
+        else if (value instanceof String) {
+            writeString((String) value);
+        }
+        else if (value instanceof Double) {
+            Double number = (Double) value;
+            writeAscii(number.isInfinite() || number.isNaN() ? "null" : number.toString());
+        }
+        else if (value instanceof Float) {
+            Float number = (Float) value;
+            writeAscii(number.isInfinite() || number.isNaN() ? "null" : number.toString());
+        }
+        else if (value instanceof Number || value instanceof Boolean) {
+            writeAscii(value.toString());
+        }
+        else if (value instanceof CompactJsonObject) {
+            writeBytes(((CompactJsonObject) value).getJsonBytes());
+        }
+        else if (value instanceof Map) {
+            writeMap((Map) value);
+        }
+        else if (value instanceof List) {
+            writeList((List) value);
+        }
+        else if (value instanceof JSONAware) {
+            writeRaw(((JSONAware) value).toJSONString());
+        }
+        else {
+            //The same as json-simple, an unknown value is written as its string (without quotes)
+            writeRaw(value.toString());
+        }
+    }
+
+    private void writeMap(Map map) throws IOException
+    {
+        writeByte('{');
+        boolean first = true;
+        for (Object entryObject : map.entrySet()) {
+            Map.Entry entry = (Map.Entry) entryObject;
+            if (!first) {
+                writeByte(',');
+            }
+            writeString(String.valueOf(entry.getKey()));
+            writeByte(':');
+            writeValue(entry.getValue());
+            first = false;
+        }
+        writeByte('}');
+    }
+
+    private void writeList(List list) throws IOException
+    {
+        writeByte('[');
+        boolean first = true;
+        for (Object item : list) {
+            if (!first) {
+                writeByte(',');
+            }
+            writeValue(item);
+            first = false;
+        }
+        writeByte(']');
+    }
+
+    /**
+     * Write a quoted string, escaped the same way as json-simple escapes strings.
+     */
+    private void writeString(String value) throws IOException
+    {
+        writeByte('"');
+        final int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char ch = value.charAt(i);
+            switch (ch) {
+                case '"':
+                    writeEscaped('"');
+                    break;
+                case '\\':
+                    writeEscaped('\\');
+                    break;
+                case '\b':
+                    writeEscaped('b');
+                    break;
+                case '\f':
+                    writeEscaped('f');
+                    break;
+                case '\n':
+                    writeEscaped('n');
+                    break;
+                case '\r':
+                    writeEscaped('r');
+                    break;
+                case '\t':
+                    writeEscaped('t');
+                    break;
+                case '/':
+                    writeEscaped('/');
+                    break;
+                default:
+                    if (ch <= '\u001F' || (ch >= '\u007F' && ch <= '\u009F') || (ch >= '\u2000' && ch <= '\u20FF')) {
+                        writeUnicodeEscape(ch);
+                    }
+                    else if (ch < 0x80) {
+                        writeByte(ch);
+                    }
+                    else if (Character.isHighSurrogate(ch) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                        writeCodePoint(Character.toCodePoint(ch, value.charAt(++i)));
+                    }
+                    else {
+                        writeCodePoint(Character.isSurrogate(ch) ? '?' : ch);
+                    }
+            }
+        }
+        writeByte('"');
+    }
+
+    /**
+     * Write a string which is already valid JSON (e.g. the output of a JSONAware).
+     */
+    private void writeRaw(String json) throws IOException
+    {
+        writeBytes(json.getBytes("UTF-8"));
+    }
+
+    private void writeAscii(String value) throws IOException
+    {
+        for (int i = 0; i < value.length(); i++) {
+            writeByte(value.charAt(i));
+        }
+    }
+
+    private void writeEscaped(char ch) throws IOException
+    {
+        writeByte('\\');
+        writeByte(ch);
+    }
+
+    private void writeUnicodeEscape(char ch) throws IOException
+    {
+        writeByte('\\');
+        writeByte('u');
+        writeByte(HEX[(ch >> 12) & 0xF]);
+        writeByte(HEX[(ch >> 8) & 0xF]);
+        writeByte(HEX[(ch >> 4) & 0xF]);
+        writeByte(HEX[ch & 0xF]);
+    }
+
+    private void writeCodePoint(int codePoint) throws IOException
+    {
+        if (codePoint < 0x800) {
+            writeByte(0xC0 | (codePoint >> 6));
+            writeByte(0x80 | (codePoint & 0x3F));
+        }
+        else if (codePoint < 0x10000) {
+            writeByte(0xE0 | (codePoint >> 12));
+            writeByte(0x80 | ((codePoint >> 6) & 0x3F));
+            writeByte(0x80 | (codePoint & 0x3F));
+        }
+        else {
+            writeByte(0xF0 | (codePoint >> 18));
+            writeByte(0x80 | ((codePoint >> 12) & 0x3F));
+            writeByte(0x80 | ((codePoint >> 6) & 0x3F));
+            writeByte(0x80 | (codePoint & 0x3F));
+        }
+    }
+
+    private void writeBytes(byte[] bytes) throws IOException
+    {
+        int offset = 0;
+        while (offset < bytes.length) {
+            if (position == buffer.length) {
+                flush();
+            }
+            int count = Math.min(bytes.length - offset, buffer.length - position);
+            System.arraycopy(bytes, offset, buffer, position, count);
+            position += count;
+            offset += count;
+        }
+    }
+
+    private void writeByte(int b) throws IOException
+    {
+        if (position == buffer.length) {
+            flush();
+        }
+        buffer[position++] = (byte) b;
+    }
+}
@@ -0,0 +1,127 @@
+package com.checkpoint.mgmt_api.utils;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * This class runs tasks on a given executor and returns their results in the order in which the tasks were submitted.
+ * No more than 'window' tasks are running (or holding a result that wasn't taken yet) at the same time, so only
+ * a bounded number of results is kept in memory.
+ * The pipeline itself is not thread safe, it should be used by a single thread.
+ *
+ * @param <T> the result type of the tasks
+ */
+public class OrderedTaskPipeline<T> {
+
+    private final ExecutorService executor;
+    private final int window;
+
+    //Tasks which weren't sent to the executor yet
+    private final Deque<Callable<T>> pendingTasks = new ArrayDeque<>();
+    //Futures of the tasks which were sent to the executor, in the submit order
+    private final Deque<Future<T>> runningTasks = new ArrayDeque<>();
+
+    /**
+     * @param executor the executor that runs the tasks
+     * @param window the maximum number of tasks that are sent to the executor at the same time
+     */
+    public OrderedTaskPipeline(ExecutorService executor, int window)
+    {
+        this.executor = executor;
+        this.window = Math.max(window, 1);
+    }
+
+    /**
+     * Add a task to the pipeline. The task is sent to the executor as soon as there is a free place in the window.
+     *
+     * @param task the task
+     */
+    public void submit(Callable<T> task)
+    {
+        pendingTasks.add(task);
+        fillWindow();
+    }
+
+    /**
+     * @return True if there is no free place in the window for new tasks
+     */
+    public boolean isFull()
+    {
+        return pendingTasks.size() + runningTasks.size() >= window;
+    }
+
+    /**
+     * @return True if there are results that weren't taken yet
+     */
+    public boolean hasNext()
+    {
+        return !runningTasks.isEmpty() || !pendingTasks.isEmpty();
+    }
+
+    /**
+     * Wait for the result of the oldest task in the pipeline.
+     *
+     * @return the result of the oldest task
+     * @throws InterruptedException if the current thread was interrupted while waiting
+     * @throws ExecutionException if the task threw an exception
+     */
+    public T next() throws InterruptedException, ExecutionException
+    {
+        return nextFuture().get();
+    }
+
+    /**
+     * Wait (up to the given time) for the result of the oldest task in the pipeline.
+     *
+     * @param timeout the maximum time to wait
+     * @param unit the time unit of the timeout argument
+     *
+     * @return the result of the oldest task
+     * @throws InterruptedException if the current thread was interrupted while waiting
+     * @throws ExecutionException if the task threw an exception
+     * @throws TimeoutException if the wait timed out
+     */
+    public T next(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException
+    {
+        return nextFuture().get(timeout, unit);
+    }
+
+    /**
+     * Cancel all the tasks that weren't taken yet.
+     */
+    public void cancel()
+    {
+        pendingTasks.clear();
+        for (Future<T> future : runningTasks) {
+            future.cancel(true);
+        }
+        runningTasks.clear();
+    }
+
+    private Future<T> nextFuture()
+    {
+        fillWindow();
+        Future<T> future = runningTasks.poll();
+        if (future == null) {
+            throw new NoSuchElementException("The pipeline is empty");
+        }
+        //The place of the taken task is free, the next task can already run while waiting for the result
+        fillWindow();
+
+        return future;
+    }
+
+    private void fillWindow()
+    {
+        while (runningTasks.size() < window && !pendingTasks.isEmpty()) {
+            runningTasks.add(executor.submit(pendingTasks.poll()));
+        }
+    }
+}
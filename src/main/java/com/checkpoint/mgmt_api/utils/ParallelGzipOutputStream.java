@@ -0,0 +1,171 @@
+package com.checkpoint.mgmt_api.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * This class compresses a stream into a gzip file using several threads (the same way as pigz).
+ * The stream is split into blocks, every block is compressed by its own thread into a complete gzip member, and the
+ * members are written in their original order. A file of several gzip members is a valid gzip file, it's extracted by
+ * gzip (and by any reader that supports concatenated members) as one stream.
+ * The class isn't thread safe, the stream is written by a single thread at a time.
+ */
+public class ParallelGzipOutputStream extends OutputStream {
+
+    private static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+
+    private final OutputStream output;
+    private final ExecutorService executor;
+    private final int maxBlocksInFlight;
+    //The blocks which are being compressed, in their original order
+    private final Queue<Future<byte[]>> compressedBlocks = new LinkedList<>();
+
+    private byte[] block;
+    private int position = 0;
+    private boolean membersWritten = false;
+    private boolean closed = false;
+
+    /**
+     * @param output the stream that the gzip members are written into
+     * @param threads the number of threads that compress the blocks
+     */
+    public ParallelGzipOutputStream(OutputStream output, int threads)
+    {
+        this(output, threads, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * @param output the stream that the gzip members are written into
+     * @param threads the number of threads that compress the blocks
+     * @param blockSize the size of the blocks which are compressed separately
+     */
+    public ParallelGzipOutputStream(OutputStream output, int threads, int blockSize)
+    {
+        this.output = output;
+        this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+            @Override
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "gzip-" + threadNumber.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        //Every thread has a block to compress, and the next blocks are ready
+        this.maxBlocksInFlight = threads * 2;
+        this.block = new byte[blockSize];
+    }
+
+    @Override
+    public void write(int b) throws IOException
+    {
+        if (position == block.length) {
+            submitBlock();
+        }
+        block[position++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException
+    {
+        while (length > 0) {
+            if (position == block.length) {
+                submitBlock();
+            }
+            int count = Math.min(length, block.length - position);
+            System.arraycopy(bytes, offset, block, position, count);
+            position += count;
+            offset += count;
+            length -= count;
+        }
+    }
+
+    /**
+     * The current block is compressed and all the blocks are written into the output.
+     * Every flush ends a gzip member, so it shouldn't be called too often.
+     */
+    @Override
+    public void flush() throws IOException
+    {
+        if (position > 0) {
+            submitBlock();
+        }
+        writeCompressedBlocks(0);
+        output.flush();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            flush();
+            if (!membersWritten) {
+                //An empty stream is still a valid gzip file
+                output.write(compress(block, 0));
+            }
+        }
+        finally {
+            executor.shutdownNow();
+            output.close();
+        }
+    }
+
+    private void submitBlock() throws IOException
+    {
+        final byte[] data = block;
+        final int length = position;
+        compressedBlocks.add(executor.submit(new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws IOException
+            {
+                return compress(data, length);
+            }
+        }));
+        block = new byte[data.length];
+        position = 0;
+
+        writeCompressedBlocks(maxBlocksInFlight);
+    }
+
+    /**
+     * Write the compressed blocks into the output, until the number of the blocks in flight is at most a given number.
+     */
+    private void writeCompressedBlocks(int blocksInFlight) throws IOException
+    {
+        while (compressedBlocks.size() > blocksInFlight) {
+            try {
+                output.write(compressedBlocks.poll().get());
+                membersWritten = true;
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while compressing");
+            }
+            catch (ExecutionException e) {
+                throw new IOException("Failed to compress a block", e.getCause());
+            }
+        }
+    }
+
+    private static byte[] compress(byte[] data, int length) throws IOException
+    {
+        ByteArrayOutputStream member = new ByteArrayOutputStream(length / 2 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(member)) {
+            gzip.write(data, 0, length);
+        }
+        return member.toByteArray();
+    }
+}
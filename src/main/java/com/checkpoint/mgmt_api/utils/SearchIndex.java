@@ -0,0 +1,220 @@
+package com.checkpoint.mgmt_api.utils;
+
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.*;
+
+/**
+ * This class builds the search index of a policy package, which the pages of the package load from its own script.
+ * The index maps the words of the names of the objects to the objects, and every object to the positions of the rules
+ * that use it in every layer (the indexes of the rules in the data of the page of the layer), so the pages find the
+ * rules of an object without going over the rules.
+ * The layers of a package are added by several threads, so the methods are synchronized.
+ */
+public class SearchIndex {
+
+    private static final String TYPE = "type";
+
+    //The rules of the layers, by the file name of the page of the layer
+    private final Map<String, LayerRules> layers = new LinkedHashMap<>();
+
+    /**
+     * This class collects the uids which are used by the rules of a single layer, with the positions of the rules.
+     * A layer is written by a single thread, so the class isn't thread safe.
+     */
+    public static class LayerRules {
+
+        //The positions of the rules that use every uid, the first element is the number of the positions
+        private final Map<String, int[]> uidToPositions = new HashMap<>();
+        private int position = 0;
+        private String layerName;
+
+        /**
+         * This function adds the next rule of the layer (every element of the data of the page is counted, including
+         * the sections and the placeholders).
+         *
+         * @param rule the rule
+         * @param uids the uids which are referenced by the rule
+         */
+        public void addRule(Object rule, Collection<String> uids)
+        {
+            //The rule's own uid isn't an object
+            Object ruleUid = rule instanceof Map ? ((Map) rule).get("uid") : null;
+            for (String uid : uids) {
+                if (uid.equals(ruleUid)) {
+                    continue;
+                }
+                int[] positions = uidToPositions.get(uid);
+                if (positions == null) {
+                    positions = new int[4];
+                    uidToPositions.put(uid, positions);
+                }
+                else if (positions[0] + 1 == positions.length) {
+                    positions = Arrays.copyOf(positions, positions.length * 2);
+                    uidToPositions.put(uid, positions);
+                }
+                positions[++positions[0]] = position;
+            }
+            position++;
+        }
+
+        /**
+         * This function adds the next rule of the layer, the uids of the rule are collected from the rule.
+         *
+         * @param rule the rule
+         */
+        public void addRule(Object rule)
+        {
+            UidDictionary uids = new UidDictionary();
+            UidDictionary.collectUids(rule, uids);
+            addRule(rule, uids.keySet());
+        }
+    }
+
+    /**
+     * This function adds the rules of a given layer, the rules of a layer which was added before are replaced
+     * (e.g. a layer whose page is written again as a failed layer).
+     *
+     * @param fileName the file name of the page of the layer (without the suffix)
+     * @param layerName the layer's name
+     * @param rules the rules of the layer
+     */
+    public synchronized void addLayer(String fileName, String layerName, LayerRules rules)
+    {
+        rules.layerName = layerName;
+        layers.remove(fileName);
+        layers.put(fileName, rules);
+    }
+
+    /**
+     * This function writes the index as a script which defines the variable 'search_index':
+     * objects - [uid, name, type] of every object of the package
+     * tokens - the words of the names of the objects (lowercase), sorted
+     * token_objects - the indexes of the objects of every word
+     * layers - {name, file} of every layer
+     * rules - for every object, the layers that use it: -(layer index + 1) followed by the positions of its rules
+     *
+     * @param writer the writer of the script
+     * @param uidToName the objects of the package
+     * @param objectStore the objects, used for their types
+     *
+     * @throws IOException in case of a write error
+     */
+    public synchronized void writeScript(Writer writer, Map<String, String> uidToName, Map<String, JSONObject> objectStore)
+            throws IOException
+    {
+        Map<String, Integer> objectIndexes = new HashMap<>();
+        SortedMap<String, List<Integer>> tokenObjects = new TreeMap<>();
+
+        writer.write("var search_index = {\"objects\":[");
+        for (Map.Entry<String, String> entry : uidToName.entrySet()) {
+            int index = objectIndexes.size();
+            objectIndexes.put(entry.getKey(), index);
+            if (index > 0) {
+                writer.write(',');
+            }
+            JSONObject object = objectStore.get(entry.getKey());
+            Object type = object != null ? object.get(TYPE) : null;
+            JSONValue.writeJSONString(Arrays.asList(entry.getKey(), entry.getValue(), type), writer);
+
+            for (String token : getTokens(entry.getValue())) {
+                List<Integer> objects = tokenObjects.get(token);
+                if (objects == null) {
+                    objects = new ArrayList<>();
+                    tokenObjects.put(token, objects);
+                }
+                objects.add(index);
+            }
+        }
+
+        writer.write("],\n\"tokens\":");
+        JSONValue.writeJSONString(new ArrayList<>(tokenObjects.keySet()), writer);
+        writer.write(",\n\"token_objects\":");
+        JSONValue.writeJSONString(new ArrayList<>(tokenObjects.values()), writer);
+
+        //The rules of every object, in the order of the layers
+        List<List<Integer>> objectRules = new ArrayList<>(objectIndexes.size());
+        for (int i = 0; i < objectIndexes.size(); i++) {
+            objectRules.add(null);
+        }
+
+        writer.write(",\n\"layers\":[");
+        int layerIndex = 0;
+        for (Map.Entry<String, LayerRules> layer : layers.entrySet()) {
+            if (layerIndex > 0) {
+                writer.write(',');
+            }
+            Map<String, String> layerDetails = new LinkedHashMap<>();
+            layerDetails.put("name", layer.getValue().layerName);
+            layerDetails.put("file", layer.getKey());
+            JSONValue.writeJSONString(layerDetails, writer);
+
+            for (Map.Entry<String, int[]> uidPositions : layer.getValue().uidToPositions.entrySet()) {
+                Integer objectIndex = objectIndexes.get(uidPositions.getKey());
+                if (objectIndex == null) {
+                    continue;
+                }
+                List<Integer> rules = objectRules.get(objectIndex);
+                if (rules == null) {
+                    rules = new ArrayList<>();
+                    objectRules.set(objectIndex, rules);
+                }
+                //Every layer of the object starts with a negative number, the positions of the rules follow
+                rules.add(-(layerIndex + 1));
+                int[] positions = uidPositions.getValue();
+                for (int i = 1; i <= positions[0]; i++) {
+                    rules.add(positions[i]);
+                }
+            }
+            layerIndex++;
+        }
+
+        writer.write("],\n\"rules\":[");
+        for (int i = 0; i < objectRules.size(); i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            List<Integer> rules = objectRules.get(i);
+            JSONValue.writeJSONString(rules != null ? rules : Collections.emptyList(), writer);
+        }
+        writer.write("]};\n");
+    }
+
+    /**
+     * This function splits a given name into its words (lowercase), the words are separated by white spaces and by
+     * the ASCII characters which aren't letters or digits. The pages split the search text the same way (getSearchWords
+     * of search_index.tpl.js, which is written after the index).
+     *
+     * @param name the name
+     *
+     * @return the words, without duplicates
+     */
+    static Set<String> getTokens(String name)
+    {
+        Set<String> tokens = new LinkedHashSet<>();
+        if (name == null) {
+            return tokens;
+        }
+        String lowerCaseName = name.toLowerCase(Locale.ROOT);
+        int start = -1;
+        for (int i = 0; i <= lowerCaseName.length(); i++) {
+            boolean separator = i == lowerCaseName.length() || isSeparator(lowerCaseName.charAt(i));
+            if (separator && start >= 0) {
+                tokens.add(lowerCaseName.substring(start, i));
+                start = -1;
+            }
+            else if (!separator && start < 0) {
+                start = i;
+            }
+        }
+        return tokens;
+    }
+
+    private static boolean isSeparator(char ch)
+    {
+        return ch <= 0x7F ? !Character.isLetterOrDigit(ch) : Character.isWhitespace(ch);
+    }
+}
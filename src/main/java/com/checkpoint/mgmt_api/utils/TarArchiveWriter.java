@@ -0,0 +1,52 @@
+package com.checkpoint.mgmt_api.utils;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.utils.IOUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * This class writes a tar file into a given stream, the stream compresses the tar file (or writes it as is).
+ */
+public class TarArchiveWriter implements ArchiveWriter {
+
+    private final TarArchiveOutputStream tarOutput;
+
+    /**
+     * @param output the stream that the tar file is written into, it's closed when the writer is closed
+     */
+    public TarArchiveWriter(OutputStream output)
+    {
+        tarOutput = new TarArchiveOutputStream(output);
+        tarOutput.setLongFileMode(TarArchiveOutputStream.LONGFILE_GNU);
+    }
+
+    @Override
+    public void addFolder(File folder, String entryName) throws IOException
+    {
+        TarArchiveEntry folderEntry = new TarArchiveEntry(folder, entryName + "/");
+        tarOutput.putArchiveEntry(folderEntry);
+        tarOutput.closeArchiveEntry();
+    }
+
+    @Override
+    public void addFile(File file, String entryName) throws IOException
+    {
+        TarArchiveEntry tarEntry = new TarArchiveEntry(file, entryName);
+        tarOutput.putArchiveEntry(tarEntry);
+        try (FileInputStream input = new FileInputStream(file)) {
+            IOUtils.copy(input, tarOutput);
+        }
+        tarOutput.closeArchiveEntry();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        tarOutput.close();
+    }
+}
@@ -1,79 +1,93 @@
 package com.checkpoint.mgmt_api.utils;
 
 import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
-import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
-import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
 import org.apache.commons.compress.utils.IOUtils;
 
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 
 /**
- * This class creates the tar.gz file, containing all of the html and json files.
+ * This class extracts the result file which was created by the tool, and deletes the temp directory.
+ * The result file is created by {@link ArchiveSink} while the export is running.
  */
 public class TarGZUtils
 {
-    public static void createTarGZ(String dirPath, String tarGzPath, boolean deleteTempDir) throws IOException {
+    /**
+     * This function extracts the files of a given result (which was created by the tool) into a given directory.
+     * The result is an archive file of one of the archive formats (see {@link ArchiveFormat}), or a result folder
+     * (of the 'dir' format) whose files are copied.
+     *
+     * @param resultPath the archive file path or the result folder path
+     * @param dirPath the directory path, created if it doesn't exist
+     *
+     * @throws IOException
+     */
+    public static void extractArchive(String resultPath, String dirPath) throws IOException {
+
+        File dir = new File(dirPath);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Failed to create directory '" + dirPath + "'");
+        }
+
+        if (new File(resultPath).isDirectory()) {
+            copyFolderFiles(new File(resultPath), dir);
+            return;
+        }
+
+        ArchiveFormat format = ArchiveFormat.fromArchivePath(resultPath);
+        if (format == null) {
+            throw new IOException("'" + resultPath + "' isn't a result file of the tool");
+        }
 
         try (
-                OutputStream fOut  = new FileOutputStream(new File(tarGzPath));
-                OutputStream bOut  = new BufferedOutputStream(fOut);
-                OutputStream gzOut = new GzipCompressorOutputStream(bOut);
-                TarArchiveOutputStream tOut  = new TarArchiveOutputStream(gzOut)
+                InputStream aIn = format.openArchive(resultPath);
+                TarArchiveInputStream tIn = new TarArchiveInputStream(aIn)
         )
         {
-            tOut.setLongFileMode(TarArchiveOutputStream.LONGFILE_GNU);
-            File f = new File(dirPath);
-            if (f.isDirectory()) {
-                //pass over all the files in the directory
-                File[] children = f.listFiles();
-                if (children != null) {
-                    for (File child : children) {
-                        addFileToTarGz(tOut, child);
-                    }
+            TarArchiveEntry entry;
+            while ((entry = tIn.getNextTarEntry()) != null) {
+                if (!entry.isFile()) {
+                    continue;
                 }
-                if(deleteTempDir) {
-                    deleteTempFolder(dirPath);
+                //The tool creates flat tar files, the entry name is used without its path
+                File file = new File(dir, new File(entry.getName()).getName());
+                try (OutputStream output = new FileOutputStream(file))
+                {
+                    IOUtils.copy(tIn, output);
                 }
-            } else {
-                System.out.println("The given directory path is not a directory");
             }
         }
     }
 
     /**
-     * This function copies a given file to the zip file
-     *
-     * @param tarArchiveOutputStream tar output stream of the zip file
-     * @param file the file to insert to the zar file
-     *
-     * @throws IOException
+     * This function copies the files of a given folder (and of its sub folders) into a given directory, without their
+     * paths (the same way as the entries of an archive are extracted).
      */
-    private static void addFileToTarGz(TarArchiveOutputStream tarArchiveOutputStream, File file)
-                                            throws IOException
-    {
-        String entryName =  file.getName();
-        TarArchiveEntry tarEntry = new TarArchiveEntry(file, entryName);
-        tarArchiveOutputStream.putArchiveEntry(tarEntry);
-
-        if (file.isFile()) {
+    private static void copyFolderFiles(File folder, File dir) throws IOException {
 
-            try (FileInputStream input = new FileInputStream(file))
-            {
-                IOUtils.copy(input, tarArchiveOutputStream);
+        File[] children = folder.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (child.isDirectory()) {
+                copyFolderFiles(child, dir);
+            }
+            else {
+                Files.copy(child.toPath(), new File(dir, child.getName()).toPath(),
+                           StandardCopyOption.REPLACE_EXISTING);
             }
-            tarArchiveOutputStream.closeArchiveEntry();
-        } else {//Directory
-            System.out.println("The directory which need to be packed to tar folder cannot contain other directories");
         }
     }
 
-
     /**
-     * This function delete a given directory.
+     * This function delete a given directory (with its sub directories).
      *
      * @param dirPath the directory path
      */
-    private static void deleteTempFolder(String dirPath){
+    public static void deleteTempFolder(String dirPath){
 
         File f = new File(dirPath);
         if (f.isDirectory()) {
@@ -81,7 +95,12 @@ public class TarGZUtils
             File[] children = f.listFiles();
             if (children != null) {
                 for (File child : children) {
-                    child.delete();
+                    if (child.isDirectory()) {
+                        deleteTempFolder(child.getPath());
+                    }
+                    else {
+                        child.delete();
+                    }
                 }
             }
         } else {
@@ -0,0 +1,415 @@
+package com.checkpoint.mgmt_api.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * This class maps the uids of objects to their names, in the order the uids were added.
+ * A uid (a lowercase UUID string, e.g. "97aeb369-9aea-11d5-bd16-0090272ccb30") is kept as two longs in an array,
+ * and it's found through an open addressing table of the indexes of the entries, so an entry takes about a fifth of
+ * the memory of a LinkedHashMap entry with its key string. Uids which aren't UUIDs are kept as strings.
+ * The names may be interned into a given pool, which is shared by the dictionaries of an export (e.g. of a domain,
+ * the same object is found by many packages and layers), and is dropped with them.
+ * The entries can't be removed. The class isn't thread safe.
+ */
+public class UidDictionary extends AbstractMap<String, String> {
+
+    private static final int DEFAULT_CAPACITY = 16;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    //The entries, in the order they were added
+    private long[] mostSignificantBits;
+    private long[] leastSignificantBits;
+    private String[] names;
+    //The uids which aren't UUIDs (created when such a uid is added)
+    private String[] otherUids = null;
+    private int size = 0;
+
+    //The index of the entry (plus one) of every slot, 0 for an empty slot
+    private int[] table;
+    //The pool that the names are interned into, null if the names are kept as they are
+    private final ConcurrentMap<String, String> namesPool;
+
+    public UidDictionary()
+    {
+        this((ConcurrentMap<String, String>) null);
+    }
+
+    /**
+     * @param namesPool the pool that the names are interned into, null if the names are kept as they are
+     */
+    public UidDictionary(ConcurrentMap<String, String> namesPool)
+    {
+        this.namesPool = namesPool;
+        mostSignificantBits = new long[DEFAULT_CAPACITY];
+        leastSignificantBits = new long[DEFAULT_CAPACITY];
+        names = new String[DEFAULT_CAPACITY];
+        table = new int[DEFAULT_CAPACITY * 2];
+    }
+
+    /**
+     * @param other the dictionary to copy
+     */
+    public UidDictionary(UidDictionary other)
+    {
+        mostSignificantBits = Arrays.copyOf(other.mostSignificantBits, Math.max(other.size, DEFAULT_CAPACITY));
+        leastSignificantBits = Arrays.copyOf(other.leastSignificantBits, mostSignificantBits.length);
+        names = Arrays.copyOf(other.names, mostSignificantBits.length);
+        if (other.otherUids != null) {
+            otherUids = Arrays.copyOf(other.otherUids, mostSignificantBits.length);
+        }
+        size = other.size;
+        table = other.table.clone();
+        namesPool = other.namesPool;
+    }
+
+    @Override
+    public int size()
+    {
+        return size;
+    }
+
+    @Override
+    public boolean containsKey(Object uid)
+    {
+        return uid instanceof String && table[findSlot((String) uid)] != 0;
+    }
+
+    @Override
+    public String get(Object uid)
+    {
+        if (!(uid instanceof String)) {
+            return null;
+        }
+        int entry = table[findSlot((String) uid)];
+        return entry == 0 ? null : names[entry - 1];
+    }
+
+    /**
+     * This function adds a given uid with its name, or replaces the name of a uid which was already added.
+     *
+     * @param uid the uid
+     * @param name the name
+     *
+     * @return the previous name of the uid, null if it wasn't added before
+     */
+    @Override
+    public String put(String uid, String name)
+    {
+        if (uid == null) {
+            throw new NullPointerException("The uid can't be null");
+        }
+        name = intern(name);
+
+        int slot = findSlot(uid);
+        if (table[slot] != 0) {
+            String previousName = names[table[slot] - 1];
+            names[table[slot] - 1] = name;
+            return previousName;
+        }
+
+        if (size == mostSignificantBits.length) {
+            growEntries();
+        }
+        if (isUuid(uid)) {
+            mostSignificantBits[size] = parseHex(uid, 0, 8) << 32 | parseHex(uid, 9, 13) << 16 | parseHex(uid, 14, 18);
+            leastSignificantBits[size] = parseHex(uid, 19, 23) << 48 | parseHex(uid, 24, 36);
+        }
+        else {
+            if (otherUids == null) {
+                otherUids = new String[mostSignificantBits.length];
+            }
+            otherUids[size] = uid;
+        }
+        names[size] = name;
+        size++;
+        table[slot] = size;
+
+        //The table is kept at most half full, so the probes are short
+        if (size * 2 > table.length) {
+            growTable();
+        }
+        return null;
+    }
+
+    /**
+     * @return the uids, in the order they were added
+     */
+    @Override
+    public Set<String> keySet()
+    {
+        return new AbstractSet<String>() {
+            @Override
+            public Iterator<String> iterator()
+            {
+                return new EntryIterator<String>() {
+                    @Override
+                    String get(int index)
+                    {
+                        return uidAt(index);
+                    }
+                };
+            }
+
+            @Override
+            public boolean contains(Object uid)
+            {
+                return containsKey(uid);
+            }
+
+            @Override
+            public int size()
+            {
+                return size;
+            }
+        };
+    }
+
+    /**
+     * @return the entries, in the order they were added (the entries are created while iterating)
+     */
+    @Override
+    public Set<Entry<String, String>> entrySet()
+    {
+        return new AbstractSet<Entry<String, String>>() {
+            @Override
+            public Iterator<Entry<String, String>> iterator()
+            {
+                return new EntryIterator<Entry<String, String>>() {
+                    @Override
+                    Entry<String, String> get(int index)
+                    {
+                        return new SimpleImmutableEntry<>(uidAt(index), names[index]);
+                    }
+                };
+            }
+
+            @Override
+            public int size()
+            {
+                return size;
+            }
+        };
+    }
+
+    private abstract class EntryIterator<T> implements Iterator<T> {
+
+        private int index = 0;
+
+        abstract T get(int index);
+
+        @Override
+        public boolean hasNext()
+        {
+            return index < size;
+        }
+
+        @Override
+        public T next()
+        {
+            if (index >= size) {
+                throw new NoSuchElementException();
+            }
+            return get(index++);
+        }
+
+        @Override
+        public void remove()
+        {
+            throw new UnsupportedOperationException("The entries of the dictionary can't be removed");
+        }
+    }
+
+    /**
+     * @return the slot of a given uid, or the empty slot that the uid should be added into
+     */
+    private int findSlot(String uid)
+    {
+        final int mask = table.length - 1;
+        if (isUuid(uid)) {
+            long mostSignificant = parseHex(uid, 0, 8) << 32 | parseHex(uid, 9, 13) << 16 | parseHex(uid, 14, 18);
+            long leastSignificant = parseHex(uid, 19, 23) << 48 | parseHex(uid, 24, 36);
+            int slot = hash(mostSignificant, leastSignificant) & mask;
+            while (table[slot] != 0) {
+                int index = table[slot] - 1;
+                if (mostSignificantBits[index] == mostSignificant && leastSignificantBits[index] == leastSignificant
+                        && (otherUids == null || otherUids[index] == null)) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        int slot = hash(uid.hashCode(), 0) & mask;
+        while (table[slot] != 0) {
+            int index = table[slot] - 1;
+            if (otherUids != null && uid.equals(otherUids[index])) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private int hashAt(int index)
+    {
+        if (otherUids != null && otherUids[index] != null) {
+            return hash(otherUids[index].hashCode(), 0);
+        }
+        return hash(mostSignificantBits[index], leastSignificantBits[index]);
+    }
+
+    private void growEntries()
+    {
+        int capacity = mostSignificantBits.length * 2;
+        mostSignificantBits = Arrays.copyOf(mostSignificantBits, capacity);
+        leastSignificantBits = Arrays.copyOf(leastSignificantBits, capacity);
+        names = Arrays.copyOf(names, capacity);
+        if (otherUids != null) {
+            otherUids = Arrays.copyOf(otherUids, capacity);
+        }
+    }
+
+    private void growTable()
+    {
+        table = new int[table.length * 2];
+        final int mask = table.length - 1;
+        for (int index = 0; index < size; index++) {
+            int slot = hashAt(index) & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = index + 1;
+        }
+    }
+
+    private String uidAt(int index)
+    {
+        if (otherUids != null && otherUids[index] != null) {
+            return otherUids[index];
+        }
+        char[] uid = new char[36];
+        long mostSignificant = mostSignificantBits[index];
+        long leastSignificant = leastSignificantBits[index];
+        formatHex(mostSignificant >>> 32, uid, 0, 8);
+        uid[8] = '-';
+        formatHex(mostSignificant >>> 16, uid, 9, 13);
+        uid[13] = '-';
+        formatHex(mostSignificant, uid, 14, 18);
+        uid[18] = '-';
+        formatHex(leastSignificant >>> 48, uid, 19, 23);
+        uid[23] = '-';
+        formatHex(leastSignificant, uid, 24, 36);
+        return new String(uid);
+    }
+
+    /**
+     * This function adds the uids which are referenced by a given JSON value (its strings which are UUIDs) to a given
+     * dictionary, without names. The value is a json-simple tree or a {@link CompactJsonObject}, whose serialized
+     * form is scanned.
+     *
+     * @param json the JSON value
+     * @param uids the dictionary of the uids
+     */
+    public static void collectUids(Object json, UidDictionary uids)
+    {
+        if (json instanceof CompactJsonObject) {
+            byte[] bytes = ((CompactJsonObject) json).getJsonBytes();
+            //A uid is a quoted string of 36 characters
+            for (int i = 0; i + 37 < bytes.length; i++) {
+                if (bytes[i] == '"' && bytes[i + 37] == '"' && isUuid(bytes, i + 1)) {
+                    uids.put(new String(bytes, i + 1, 36, StandardCharsets.US_ASCII), null);
+                    i += 37;
+                }
+            }
+        }
+        else if (json instanceof Map) {
+            for (Object value : ((Map) json).values()) {
+                collectUids(value, uids);
+            }
+        }
+        else if (json instanceof List) {
+            for (Object value : (List) json) {
+                collectUids(value, uids);
+            }
+        }
+        else if (json instanceof String && isUuid((String) json)) {
+            uids.put((String) json, null);
+        }
+    }
+
+    private static int hash(long mostSignificant, long leastSignificant)
+    {
+        long hash = (mostSignificant * 0x9E3779B97F4A7C15L) ^ leastSignificant;
+        hash *= 0xC2B2AE3D27D4EB4FL;
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    /**
+     * @return True if a given uid is a lowercase UUID string (only such uids are kept as two longs, so that the same
+     *         string is created when the uid is read)
+     */
+    private static boolean isUuid(String uid)
+    {
+        if (uid.length() != 36) {
+            return false;
+        }
+        for (int i = 0; i < 36; i++) {
+            char ch = uid.charAt(i);
+            if (i == 8 || i == 13 || i == 18 || i == 23) {
+                if (ch != '-') {
+                    return false;
+                }
+            }
+            else if (!((ch >= '0' && ch <= '9') || (ch >= 'a' && ch <= 'f'))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isUuid(byte[] bytes, int offset)
+    {
+        for (int i = 0; i < 36; i++) {
+            byte ch = bytes[offset + i];
+            if (i == 8 || i == 13 || i == 18 || i == 23) {
+                if (ch != '-') {
+                    return false;
+                }
+            }
+            else if (!((ch >= '0' && ch <= '9') || (ch >= 'a' && ch <= 'f'))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long parseHex(String value, int start, int end)
+    {
+        long result = 0;
+        for (int i = start; i < end; i++) {
+            char ch = value.charAt(i);
+            result = (result << 4) | (ch <= '9' ? ch - '0' : ch - 'a' + 10);
+        }
+        return result;
+    }
+
+    private static void formatHex(long value, char[] chars, int start, int end)
+    {
+        for (int i = end - 1; i >= start; i--) {
+            chars[i] = HEX_DIGITS[(int) (value & 0xF)];
+            value >>>= 4;
+        }
+    }
+
+    private String intern(String name)
+    {
+        if (name == null || namesPool == null) {
+            return name;
+        }
+        String pooledName = namesPool.putIfAbsent(name, name);
+        return pooledName == null ? name : pooledName;
+    }
+}
@@ -0,0 +1,71 @@
+// The functions of the search, shared by the rulebase pages and the objects page of a package. They are written into
+// the search index script of the package, after the 'search_index' variable (see SearchIndex.java).
+var MAX_SEARCH_RESULTS = 50;
+var searchObjectIndexes = null;
+
+// splits a text into lowercase words, the same way as the names are split in the search index
+function getSearchWords(text) {
+    return text.toLowerCase().split(/[\s\x00-\x2f\x3a-\x40\x5b-\x60\x7b-\x7f]+/).filter(function (word) {
+        return word.length > 0;
+    });
+}
+
+// returns the indexes of the objects whose names have a word that starts with every word of the text
+function searchObjects(text) {
+    text = text.trim();
+    if (/^[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}$/i.test(text)) {
+        if (searchObjectIndexes == null) {
+            searchObjectIndexes = {};
+            search_index.objects.forEach(function (object, index) {
+                searchObjectIndexes[object[0]] = index;
+            });
+        }
+        var objectIndex = searchObjectIndexes[text.toLowerCase()];
+        return objectIndex === undefined ? [] : [objectIndex];
+    }
+
+    var found = null;
+    getSearchWords(text).forEach(function (word) {
+        var tokens = search_index.tokens;
+        var low = 0;
+        var high = tokens.length;
+        while (low < high) {
+            var middle = (low + high) >> 1;
+            if (tokens[middle] < word) {
+                low = middle + 1;
+            }
+            else {
+                high = middle;
+            }
+        }
+        var matches = {};
+        for (var i = low; i < tokens.length && tokens[i].lastIndexOf(word, 0) === 0; i++) {
+            search_index.token_objects[i].forEach(function (objectIndex) {
+                if (found == null || found[objectIndex]) {
+                    matches[objectIndex] = true;
+                }
+            });
+        }
+        found = matches;
+    });
+    if (found == null) {
+        return [];
+    }
+    return Object.keys(found).map(Number).sort(function (a, b) {
+        return String(search_index.objects[a][1]).localeCompare(String(search_index.objects[b][1]));
+    });
+}
+
+// returns the layers that use a given object: [{layer, positions}]
+function getObjectLayers(objectIndex) {
+    var layers = [];
+    search_index.rules[objectIndex].forEach(function (value) {
+        if (value < 0) {
+            layers.push({layer: -value - 1, positions: []});
+        }
+        else {
+            layers[layers.length - 1].positions.push(value);
+        }
+    });
+    return layers;
+}